@@ -0,0 +1,124 @@
+package volvis;
+
+import java.lang.management.ManagementFactory;
+import volume.Volume;
+
+/**
+ * Checks that ray casting a frame allocates no more than a fixed budget. The
+ * bytes allocated by every thread, the calling thread and the render threads
+ * alike, are summed across a frame once the per volume and per view state
+ * (gradient bricks, tables, G-buffers) has been built by warmup frames. The
+ * ray traversal itself should allocate nothing per pixel or per sample, so
+ * what remains is a small per frame and per tile overhead.
+ * <p>
+ * Usage: AllocationCheck [budget in bytes], or ant check-allocations. Exits
+ * with status 1 if a frame goes over the budget, 2 if the JVM cannot measure
+ * allocations.
+ */
+public class AllocationCheck {
+
+    /**
+     * Default allocation budget of one frame, in bytes.
+     */
+    private static final long FRAME_BUDGET = 64 * 1024;
+
+    private static final int SIZE = 128;
+    private static final int WARMUP_FRAMES = 5;
+
+    private static final RaycastMode[] MODES = {
+        RaycastMode.SLICER, RaycastMode.MIP, RaycastMode.COMPOSITING, RaycastMode.ISO_SURFACE, RaycastMode.TRANSFER2D
+    };
+
+    /**
+     * Oblique views, so that rays cross bricks in every direction. They
+     * alternate, so that every frame casts its rays as during interaction
+     * instead of being reshaded from a G-buffer.
+     */
+    private static final double[][] VIEWS = {
+        {
+            0.7071067811865476, -0.4082482904638631, 0.5773502691896258, 0,
+            0, 0.8164965809277261, 0.5773502691896258, 0,
+            -0.7071067811865476, -0.4082482904638631, 0.5773502691896258, 0,
+            0, 0, 0, 1
+        },
+        {
+            0.7071067811865476, 0.4082482904638631, -0.5773502691896258, 0,
+            0, 0.8164965809277261, 0.5773502691896258, 0,
+            0.7071067811865476, -0.4082482904638631, 0.5773502691896258, 0,
+            0, 0, 0, 1
+        }
+    };
+
+    public static void main(String[] args) {
+        long budget = args.length > 0 ? Long.parseLong(args[0]) : FRAME_BUDGET;
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Thread allocation counters are not supported by this JVM");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        Volume vol = SyntheticVolumes.create(SyntheticVolumes.Kind.CT, SIZE);
+        RaycastEngine engine = new RaycastEngine(vol);
+        int imageSize = RaycastEngine.getImageSize(vol);
+        FrameBuffer image = new FrameBuffer(imageSize, imageSize);
+
+        boolean failed = false;
+        for (RaycastMode mode : MODES) {
+            engine.setRaycastModeFront(mode);
+            failed |= !check(engine, image, allocations, budget, mode.toString());
+            if (mode == RaycastMode.COMPOSITING || mode == RaycastMode.ISO_SURFACE) {
+                engine.setShadingMode(true);
+                failed |= !check(engine, image, allocations, budget, mode + " shaded");
+                engine.setShadingMode(false);
+            }
+        }
+        engine.setRaycastModeFront(RaycastMode.COMPOSITING);
+        engine.setAdaptiveSampling(true);
+        failed |= !check(engine, image, allocations, budget, "COMPOSITING adaptive");
+        engine.setPreIntegration(true);
+        failed |= !check(engine, image, allocations, budget, "COMPOSITING adaptive pre-integrated");
+        engine.setAdaptiveSampling(false);
+        failed |= !check(engine, image, allocations, budget, "COMPOSITING pre-integrated");
+        engine.setPreIntegration(false);
+        engine.setRaycastModeFront(RaycastMode.MIP);
+        engine.setMipAcceleration(true);
+        failed |= !check(engine, image, allocations, budget, "MIP accelerated");
+
+        System.out.println("Budget " + budget + " bytes per frame");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /**
+     * Renders warmup frames with the current settings of the engine, then
+     * measures the bytes allocated by one more frame and prints them.
+     *
+     * @return Whether the frame stayed within budget.
+     */
+    private static boolean check(RaycastEngine engine, FrameBuffer image,
+                                 com.sun.management.ThreadMXBean allocations, long budget, String name) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            engine.render(VIEWS[i % 2], image, 1, 1, () -> false);
+        }
+        long before = allocatedBytes(allocations);
+        engine.render(VIEWS[WARMUP_FRAMES % 2], image, 1, 1, () -> false);
+        long allocated = allocatedBytes(allocations) - before;
+
+        boolean within = allocated <= budget;
+        System.out.printf("%-36s %10d bytes %s%n", name, allocated, within ? "ok" : "OVER BUDGET");
+        return within;
+    }
+
+    /**
+     * Sums the bytes allocated so far by all live threads.
+     */
+    private static long allocatedBytes(com.sun.management.ThreadMXBean allocations) {
+        long sum = 0;
+        for (long bytes : allocations.getThreadAllocatedBytes(allocations.getAllThreadIds())) {
+            // threads that died in between report -1
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,130 @@
+package volvis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal benchmark harness in the spirit of JMH: every benchmark runs a
+ * number of timed warmup iterations, then a number of timed measurement
+ * iterations, and reports the mean time per operation with its standard
+ * deviation in microseconds. Results are folded into a volatile sink so the
+ * JIT cannot remove the measured code.
+ * <p>
+ * The iteration settings are read from the system properties
+ * bench.warmup (iterations, default 3), bench.iterations (default 5) and
+ * bench.time (milliseconds per iteration, default 500).
+ */
+class Bench {
+
+    /**
+     * Code under measurement. One call is one operation.
+     */
+    interface Operation {
+
+        /**
+         * @return A value depending on the work done, consumed by the harness.
+         */
+        double run();
+    }
+
+    Bench(String filter) {
+        this.filter = filter == null || filter.isEmpty() ? null : Pattern.compile(filter);
+        warmupIterations = Integer.getInteger("bench.warmup", 3);
+        measurementIterations = Integer.getInteger("bench.iterations", 5);
+        iterationNanos = Long.getLong("bench.time", 500) * 1000000L;
+    }
+
+    /**
+     * Whether a benchmark is selected by the filter.
+     */
+    boolean isSelected(String name) {
+        return filter == null || filter.matcher(name).find();
+    }
+
+    /**
+     * Measures an operation, if it is selected, and prints the result.
+     *
+     * @param name      Name of the benchmark.
+     * @param params    Parameters, e.g. the volume it runs on.
+     * @param operation Code to measure.
+     */
+    void run(String name, String params, Operation operation) {
+        if (!isSelected(name)) {
+            return;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            iteration(operation);
+        }
+        double[] scores = new double[measurementIterations];
+        for (int i = 0; i < measurementIterations; i++) {
+            scores[i] = iteration(operation);
+        }
+
+        double mean = 0;
+        for (double score : scores) {
+            mean += score / scores.length;
+        }
+        double variance = 0;
+        for (double score : scores) {
+            variance += (score - mean) * (score - mean) / Math.max(1, scores.length - 1);
+        }
+        Result result = new Result(name, params, mean, Math.sqrt(variance));
+        results.add(result);
+        System.out.println(result);
+    }
+
+    List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Runs an operation for one iteration.
+     *
+     * @return Nanoseconds per operation.
+     */
+    private double iteration(Operation operation) {
+        long operations = 0;
+        double sum = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            sum += operation.run();
+            operations++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        sink += sum;
+        return (double) elapsed / operations;
+    }
+
+    static class Result {
+
+        Result(String name, String params, double nanosPerOp, double error) {
+            this.name = name;
+            this.params = params;
+            this.nanosPerOp = nanosPerOp;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-36s %-24s %14.3f +- %10.3f us/op", name, params, nanosPerOp / 1e3, error / 1e3);
+        }
+
+        final String name;
+        final String params;
+        final double nanosPerOp;
+        final double error;
+    }
+
+    /**
+     * Consumes benchmark results so they are not optimized away.
+     */
+    static volatile double sink;
+
+    private final Pattern filter;
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationNanos;
+    private final List<Result> results = new ArrayList<>();
+}
@@ -0,0 +1,155 @@
+package volvis;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import volume.Volume;
+import volume.VoxelLayout;
+
+/**
+ * Compares the voxel layouts of {@link Volume} across view directions. For
+ * every layout and direction it reports how many cache lines a ray touches
+ * per sample that the previous sample on the same ray did not touch, and the
+ * median frame time of the ray caster in MIP and compositing mode.
+ * <p>
+ * Usage: LayoutBenchmark [frames] [file.fld]. Without a file a synthetic
+ * 192^3 volume is used.
+ */
+public class LayoutBenchmark {
+
+    private static final int CACHE_LINE_BYTES = 64;
+    private static final int WARMUP_FRAMES = 3;
+
+    private static final String[] DIRECTION_NAMES = {"x", "y", "z", "diagonal"};
+    private static final double[][] DIRECTIONS = {
+        {1, 0, 0}, {0, 1, 0}, {0, 0, 1}, {1 / Math.sqrt(3), 1 / Math.sqrt(3), 1 / Math.sqrt(3)}
+    };
+
+    public static void main(String[] args) {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        File file = args.length > 1 ? new File(args[1]) : null;
+
+        System.out.printf("%-8s %-9s %13s %10s %10s%n", "layout", "direction", "lines/sample", "MIP ms", "DVR ms");
+        for (VoxelLayout layout : VoxelLayout.values()) {
+            Volume vol = file != null ? new Volume(file, layout) : createSyntheticVolume(192, layout);
+            RaycastRenderer renderer = new RaycastRenderer();
+            renderer.setVolume(vol);
+            for (int d = 0; d < DIRECTIONS.length; d++) {
+                double lines = newCacheLinesPerSample(vol, DIRECTIONS[d]);
+                double[] viewMatrix = viewMatrix(DIRECTIONS[d]);
+                double mip = medianFrameTime(renderer, RaycastMode.MIP, viewMatrix, frames);
+                double dvr = medianFrameTime(renderer, RaycastMode.COMPOSITING, viewMatrix, frames);
+                System.out.printf("%-8s %-9s %13.2f %10.1f %10.1f%n", layout, DIRECTION_NAMES[d], lines, mip, dvr);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Creates a volume of concentric shells with some noise, so that empty
+     * space skipping and early ray termination behave as on real data.
+     */
+    private static Volume createSyntheticVolume(int size, VoxelLayout layout) {
+        Volume vol = new Volume(size, size, size, layout);
+        Random random = new Random(1);
+        double center = (size - 1) / 2.0;
+        for (int z = 0; z < size; z++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    double r = Math.sqrt((x - center) * (x - center) + (y - center) * (y - center)
+                            + (z - center) * (z - center)) / center;
+                    double value = r > 1 ? 0 : 200 * (0.5 + 0.5 * Math.cos(12 * r)) + 20 * random.nextDouble();
+                    vol.setVoxel(x, y, z, (short) value);
+                }
+            }
+        }
+        return vol;
+    }
+
+    /**
+     * Marches random rays through the volume and counts the cache lines
+     * holding the 8 corners of every sample that did not hold a corner of the
+     * previous sample.
+     */
+    private static double newCacheLinesPerSample(Volume vol, double[] direction) {
+        Random random = new Random(2);
+        int voxelsPerLine = CACHE_LINE_BYTES / 2;
+        long[] previous = new long[8];
+        long[] current = new long[8];
+        long newLines = 0;
+        long samples = 0;
+        for (int ray = 0; ray < 2000; ray++) {
+            double[] pos = {
+                random.nextDouble() * (vol.getDimX() - 2),
+                random.nextDouble() * (vol.getDimY() - 2),
+                random.nextDouble() * (vol.getDimZ() - 2)
+            };
+            Arrays.fill(previous, -1);
+            while (pos[0] <= vol.getDimX() - 2 && pos[1] <= vol.getDimY() - 2 && pos[2] <= vol.getDimZ() - 2) {
+                int x = (int) pos[0], y = (int) pos[1], z = (int) pos[2];
+                for (int corner = 0; corner < 8; corner++) {
+                    int index = vol.getIndex(x + (corner & 1), y + ((corner >> 1) & 1), z + (corner >> 2));
+                    current[corner] = index / voxelsPerLine;
+                }
+                for (int corner = 0; corner < 8; corner++) {
+                    boolean seen = false;
+                    for (int other = 0; other < corner && !seen; other++) {
+                        seen = current[other] == current[corner];
+                    }
+                    for (int other = 0; other < 8 && !seen; other++) {
+                        seen = previous[other] == current[corner];
+                    }
+                    newLines += seen ? 0 : 1;
+                }
+                long[] swap = previous;
+                previous = current;
+                current = swap;
+                samples++;
+                for (int i = 0; i < 3; i++) {
+                    pos[i] += direction[i];
+                }
+            }
+        }
+        return samples > 0 ? (double) newLines / samples : 0;
+    }
+
+    private static double medianFrameTime(RaycastRenderer renderer, RaycastMode mode, double[] viewMatrix, int frames) {
+        renderer.setRaycastModeFront(mode);
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            renderer.render(viewMatrix);
+        }
+        double[] times = new double[frames];
+        for (int i = 0; i < frames; i++) {
+            long start = System.nanoTime();
+            renderer.render(viewMatrix);
+            times[i] = (System.nanoTime() - start) / 1e6;
+        }
+        Arrays.sort(times);
+        return times[frames / 2];
+    }
+
+    /**
+     * Builds a view matrix looking along direction, in the layout the
+     * renderer reads: the u, v and view vectors are the first three rows.
+     */
+    private static double[] viewMatrix(double[] direction) {
+        double[] up = Math.abs(direction[1]) > 0.9 ? new double[]{0, 0, 1} : new double[]{0, 1, 0};
+        double[] u = normalize(cross(direction, up));
+        double[] v = cross(u, direction);
+        return new double[]{
+            u[0], v[0], direction[0], 0,
+            u[1], v[1], direction[1], 0,
+            u[2], v[2], direction[2], 0,
+            0, 0, 0, 1
+        };
+    }
+
+    private static double[] cross(double[] a, double[] b) {
+        return new double[]{a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]};
+    }
+
+    private static double[] normalize(double[] a) {
+        double length = Math.sqrt(a[0] * a[0] + a[1] * a[1] + a[2] * a[2]);
+        return new double[]{a[0] / length, a[1] / length, a[2] / length};
+    }
+}
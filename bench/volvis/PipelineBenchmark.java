@@ -0,0 +1,240 @@
+package volvis;
+
+import java.util.Random;
+import volume.GradientVolume;
+import volume.MinMaxOctree;
+import volume.Volume;
+import volume.VoxelGradient;
+
+/**
+ * Benchmarks the stages of the rendering pipeline on synthetic volumes:
+ * trilinear voxel and gradient sampling, transfer function lookups, Phong
+ * shading, and full frames in every {@link RaycastMode} from fixed cameras,
+ * also compositing with adaptive sampling and the 2D transfer function on
+ * several threads with eager and lazy gradients.
+ * <p>
+ * Usage: PipelineBenchmark [regex]. Only benchmarks whose name matches the
+ * regex are run. The volume sizes are read from the system property
+ * bench.sizes (comma separated, default 64,128), the iteration settings as
+ * described in {@link Bench}.
+ */
+public class PipelineBenchmark {
+
+    /**
+     * Number of samples taken per operation by the sampling benchmarks, so
+     * that the loop overhead of the harness does not dominate.
+     */
+    private static final int BATCH = 1024;
+
+    private static final String[] CAMERA_NAMES = {"front", "oblique"};
+    private static final double[][] CAMERAS = {
+        {
+            1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, 1, 0,
+            0, 0, 0, 1
+        },
+        {
+            0.7071067811865476, -0.4082482904638631, 0.5773502691896258, 0,
+            0, 0.8164965809277261, 0.5773502691896258, 0,
+            -0.7071067811865476, -0.4082482904638631, 0.5773502691896258, 0,
+            0, 0, 0, 1
+        }
+    };
+
+    private static final RaycastMode[] FRAME_MODES = {
+        RaycastMode.SLICER, RaycastMode.MIP, RaycastMode.COMPOSITING, RaycastMode.ISO_SURFACE, RaycastMode.TRANSFER2D
+    };
+
+    public static void main(String[] args) {
+        Bench bench = new Bench(args.length > 0 ? args[0] : null);
+        for (String size : System.getProperty("bench.sizes", "64,128").split(",")) {
+            for (SyntheticVolumes.Kind kind : SyntheticVolumes.Kind.values()) {
+                Volume vol = SyntheticVolumes.create(kind, Integer.parseInt(size.trim()));
+                String params = kind + " " + vol.getDimX() + "^3";
+                sampling(bench, vol, params);
+                shading(bench, vol, params);
+                frames(bench, vol, params);
+                gradientFrames(bench, vol, params);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void sampling(Bench bench, Volume vol, String params) {
+        double[][] coords = randomCoordinates(vol);
+        bench.run("Volume.getVoxelTrilinear", params, () -> {
+            double sum = 0;
+            for (double[] coord : coords) {
+                sum += vol.getVoxelTrilinear(coord);
+            }
+            return sum;
+        });
+
+        if (!bench.isSelected("GradientVolume.getGradientTrilinear")) {
+            return;
+        }
+        GradientVolume gradients = new GradientVolume(vol);
+        VoxelGradient gradient = new VoxelGradient();
+        bench.run("GradientVolume.getGradientTrilinear", params, () -> {
+            double sum = 0;
+            for (double[] coord : coords) {
+                sum += gradients.getGradientTrilinear(coord, gradient).mag;
+            }
+            return sum;
+        });
+    }
+
+    private static void shading(Bench bench, Volume vol, String params) {
+        TransferFunction tFunc = new TransferFunction(vol.getMinimum(), vol.getMaximum());
+        tFunc.setTestFunc();
+        int[] values = new int[BATCH];
+        Random random = new Random(3);
+        for (int i = 0; i < BATCH; i++) {
+            values[i] = vol.getMinimum() + random.nextInt(vol.getMaximum() - vol.getMinimum() + 1);
+        }
+        TFColor lookup = new TFColor();
+        bench.run("TransferFunction.getColor", params, () -> {
+            double sum = 0;
+            for (int value : values) {
+                sum += tFunc.getColor(value, lookup).a;
+            }
+            return sum;
+        });
+
+        // dragging the orange control point of the test function back and forth
+        int[] drag = {0};
+        bench.run("TransferFunction.updateControlPoint", params, () -> {
+            int offset = drag[0]++ % 20;
+            tFunc.updateControlPoint(2, 65 + offset, 0.5 + offset / 40.0);
+            return tFunc.getVersion();
+        });
+
+        if (!bench.isSelected("computePhongShading")) {
+            return;
+        }
+        RaycastEngine engine = new RaycastEngine();
+        RayScratch scratch = new RayScratch();
+        VoxelGradient[] gradients = new VoxelGradient[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            gradients[i] = new VoxelGradient((float) random.nextGaussian(), (float) random.nextGaussian(),
+                    (float) random.nextGaussian());
+        }
+        double[] lightVector = {0.3, 0.4, -0.866};
+        double[] rayVector = {0, 0, -1};
+        TFColor color = new TFColor();
+        bench.run("computePhongShading", params, () -> {
+            double sum = 0;
+            for (VoxelGradient gradient : gradients) {
+                color.r = 0.8;
+                color.g = 0.6;
+                color.b = 0.4;
+                color.a = 1;
+                sum += engine.computePhongShading(color, gradient, lightVector, rayVector, scratch).r;
+            }
+            return sum;
+        });
+    }
+
+    private static void frames(Bench bench, Volume vol, String params) {
+        RaycastRenderer renderer = null;
+        for (RaycastMode mode : FRAME_MODES) {
+            String name = "frame." + mode;
+            if (!bench.isSelected(name)) {
+                continue;
+            }
+            if (renderer == null) {
+                renderer = new RaycastRenderer();
+                renderer.setVolume(vol);
+            }
+            renderer.setRaycastModeFront(mode);
+            renderer.setShadingMode(mode == RaycastMode.COMPOSITING || mode == RaycastMode.ISO_SURFACE);
+            frame(bench, renderer, name, params);
+        }
+
+        String name = "frame.COMPOSITING.adaptive";
+        if (bench.isSelected(name)) {
+            if (renderer == null) {
+                renderer = new RaycastRenderer();
+                renderer.setVolume(vol);
+            }
+            renderer.setRaycastModeFront(RaycastMode.COMPOSITING);
+            renderer.setShadingMode(true);
+            renderer.setAdaptiveSampling(true);
+            frame(bench, renderer, name, params);
+            renderer.setAdaptiveSampling(false);
+        }
+
+        name = "frame.MIP.accelerated";
+        if (bench.isSelected(name)) {
+            if (renderer == null) {
+                renderer = new RaycastRenderer();
+                renderer.setVolume(vol);
+            }
+            renderer.setRaycastModeFront(RaycastMode.MIP);
+            renderer.setMipAcceleration(true);
+            frame(bench, renderer, name, params);
+            renderer.setMipAcceleration(false);
+        }
+    }
+
+    /**
+     * Benchmarks 2D transfer function frames, which look up a gradient at
+     * every sample, on several render threads, with the gradients computed
+     * up front and lazily within the default budget.
+     */
+    private static void gradientFrames(Bench bench, Volume vol, String params) {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        MinMaxOctree octree = null;
+        for (boolean lazy : new boolean[]{false, true}) {
+            String name = "frame.TRANSFER2D." + (lazy ? "lazy" : "eager");
+            if (!bench.isSelected(name)) {
+                continue;
+            }
+            if (octree == null) {
+                octree = new MinMaxOctree(vol);
+            }
+            RaycastEngine engine = new RaycastEngine();
+            engine.setRenderThreadCount(threads);
+            GradientVolume gradients = lazy ? new GradientVolume(vol, engine.getGradientBudget())
+                    : new GradientVolume(vol);
+            engine.setVolume(vol, gradients, octree);
+            engine.setRaycastModeFront(RaycastMode.TRANSFER2D);
+            for (int c = 0; c < CAMERAS.length; c++) {
+                double[] viewMatrix = CAMERAS[c];
+                bench.run(name, params + " " + threads + " threads " + CAMERA_NAMES[c],
+                        () -> engine.render(viewMatrix).length);
+            }
+        }
+    }
+
+    /**
+     * Benchmarks full frames from every camera with the current settings of
+     * a renderer.
+     */
+    private static void frame(Bench bench, RaycastRenderer renderer, String name, String params) {
+        for (int c = 0; c < CAMERAS.length; c++) {
+            double[] viewMatrix = CAMERAS[c];
+            bench.run(name, params + " " + CAMERA_NAMES[c], () -> {
+                renderer.render(viewMatrix);
+                return 0;
+            });
+        }
+    }
+
+    /**
+     * Creates a batch of random sample positions inside the volume.
+     */
+    private static double[][] randomCoordinates(Volume vol) {
+        Random random = new Random(2);
+        double[][] coords = new double[BATCH][];
+        for (int i = 0; i < BATCH; i++) {
+            coords[i] = new double[]{
+                random.nextDouble() * (vol.getDimX() - 1),
+                random.nextDouble() * (vol.getDimY() - 1),
+                random.nextDouble() * (vol.getDimZ() - 1)
+            };
+        }
+        return coords;
+    }
+}
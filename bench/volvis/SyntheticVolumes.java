@@ -0,0 +1,65 @@
+package volvis;
+
+import java.util.Random;
+import volume.Volume;
+
+/**
+ * Deterministic synthetic volumes for the benchmarks.
+ */
+final class SyntheticVolumes {
+
+    enum Kind {
+        /**
+         * Solid sphere with a smooth falloff, mostly empty space around it.
+         */
+        SPHERE,
+        /**
+         * Uniform noise, no empty space and no coherence.
+         */
+        NOISE,
+        /**
+         * Rough imitation of a CT scan: air, a skin shell, soft tissue with
+         * some noise and a denser bone-like core.
+         */
+        CT
+    }
+
+    private SyntheticVolumes() {
+    }
+
+    static Volume create(Kind kind, int size) {
+        Volume vol = new Volume(size, size, size);
+        Random random = new Random(size);
+        double center = (size - 1) / 2.0;
+        for (int z = 0; z < size; z++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    double dx = (x - center) / center, dy = (y - center) / center, dz = (z - center) / center;
+                    double r = Math.sqrt(dx * dx + dy * dy + dz * dz);
+                    double value;
+                    switch (kind) {
+                        case SPHERE:
+                            value = r < 0.8 ? 255 * (1 - r / 0.8) : 0;
+                            break;
+                        case NOISE:
+                            value = random.nextInt(256);
+                            break;
+                        default:
+                            if (r > 0.9) {
+                                value = 0;
+                            } else if (r > 0.85) {
+                                value = 900;
+                            } else if (r > 0.35) {
+                                value = 1000 + 60 * random.nextGaussian();
+                            } else {
+                                value = 1800 + 100 * random.nextGaussian();
+                            }
+                            break;
+                    }
+                    vol.setVoxel(x, y, z, (short) Math.max(0, value));
+                }
+            }
+        }
+        return vol;
+    }
+}
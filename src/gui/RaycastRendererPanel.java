@@ -35,6 +35,16 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
         renderingSpeedLabel.setText(text);
     }
 
+    /**
+     * Lets the slice offset slider reach the corners of the volume.
+     *
+     * @param imageSize Size of the image the volume is rendered to.
+     */
+    public void setSliceRange(int imageSize) {
+        sliceOffsetSlider.setMinimum(-imageSize / 2);
+        sliceOffsetSlider.setMaximum(imageSize / 2);
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -70,6 +80,13 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
         colorButton1 = new javax.swing.JButton();
         transferFunction2dButton = new javax.swing.JRadioButton();
         jLabel7 = new javax.swing.JLabel();
+        sliceOffsetLabel = new javax.swing.JLabel();
+        sliceOffsetSlider = new javax.swing.JSlider();
+        preIntegrationCheckbox = new javax.swing.JCheckBox();
+        sliceTransferFunctionCheckbox = new javax.swing.JCheckBox();
+        adaptiveSamplingCheckbox = new javax.swing.JCheckBox();
+        mipAccelerationCheckbox = new javax.swing.JCheckBox();
+        mipTrilinearCheckbox = new javax.swing.JCheckBox();
 
         jLabel1.setText("Rendering time (ms):");
 
@@ -220,6 +237,51 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
         jLabel7.setText("Front mode");
         jLabel7.setToolTipText("");
 
+        sliceOffsetLabel.setText("Slice offset:");
+
+        sliceOffsetSlider.setMinimum(-100);
+        sliceOffsetSlider.setValue(0);
+        sliceOffsetSlider.addChangeListener(new javax.swing.event.ChangeListener() {
+            public void stateChanged(javax.swing.event.ChangeEvent evt) {
+                sliceOffsetSliderStateChanged(evt);
+            }
+        });
+
+        preIntegrationCheckbox.setText("Pre-integrated compositing");
+        preIntegrationCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                preIntegrationCheckboxActionPerformed(evt);
+            }
+        });
+
+        sliceTransferFunctionCheckbox.setText("Color slices with the transfer function");
+        sliceTransferFunctionCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                sliceTransferFunctionCheckboxActionPerformed(evt);
+            }
+        });
+
+        adaptiveSamplingCheckbox.setText("Adaptive sampling");
+        adaptiveSamplingCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                adaptiveSamplingCheckboxActionPerformed(evt);
+            }
+        });
+
+        mipAccelerationCheckbox.setText("Accelerated MIP");
+        mipAccelerationCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mipAccelerationCheckboxActionPerformed(evt);
+            }
+        });
+
+        mipTrilinearCheckbox.setText("Trilinear MIP");
+        mipTrilinearCheckbox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mipTrilinearCheckboxActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
         layout.setHorizontalGroup(
@@ -236,6 +298,17 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
                         .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                             .addComponent(shadingCheckbox)
                             .addComponent(cuttingPlaneCheckbox)
+                            .addGroup(layout.createSequentialGroup()
+                                .addComponent(mipAccelerationCheckbox)
+                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(mipTrilinearCheckbox))
+                            .addComponent(adaptiveSamplingCheckbox)
+                            .addComponent(sliceTransferFunctionCheckbox)
+                            .addComponent(preIntegrationCheckbox)
+                            .addGroup(layout.createSequentialGroup()
+                                .addComponent(sliceOffsetLabel)
+                                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                                .addComponent(sliceOffsetSlider, javax.swing.GroupLayout.PREFERRED_SIZE, 150, javax.swing.GroupLayout.PREFERRED_SIZE))
                             .addGroup(layout.createSequentialGroup()
                                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                                     .addComponent(compositingButton)
@@ -320,6 +393,20 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
                             .addComponent(isosurfaceButton2))))
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(transferFunction2dButton)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.CENTER)
+                    .addComponent(sliceOffsetLabel)
+                    .addComponent(sliceOffsetSlider))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(preIntegrationCheckbox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(sliceTransferFunctionCheckbox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(adaptiveSamplingCheckbox)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.CENTER)
+                    .addComponent(mipAccelerationCheckbox)
+                    .addComponent(mipTrilinearCheckbox))
                 .addContainerGap(124, Short.MAX_VALUE))
         );
     }// </editor-fold>//GEN-END:initComponents
@@ -433,9 +520,40 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
         renderer.changed();
     }//GEN-LAST:event_transferFunction2dButtonActionPerformed
 
+    private void sliceOffsetSliderStateChanged(javax.swing.event.ChangeEvent evt) {//GEN-FIRST:event_sliceOffsetSliderStateChanged
+        renderer.setSliceOffset(sliceOffsetSlider.getValue());
+        renderer.changed();
+    }//GEN-LAST:event_sliceOffsetSliderStateChanged
+
+    private void preIntegrationCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_preIntegrationCheckboxActionPerformed
+        renderer.setPreIntegration(((JCheckBox) evt.getSource()).isSelected());
+        renderer.changed();
+    }//GEN-LAST:event_preIntegrationCheckboxActionPerformed
+
+    private void sliceTransferFunctionCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_sliceTransferFunctionCheckboxActionPerformed
+        renderer.setSlicerTransferFunction(((JCheckBox) evt.getSource()).isSelected());
+        renderer.changed();
+    }//GEN-LAST:event_sliceTransferFunctionCheckboxActionPerformed
+
+    private void adaptiveSamplingCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_adaptiveSamplingCheckboxActionPerformed
+        renderer.setAdaptiveSampling(((JCheckBox) evt.getSource()).isSelected());
+        renderer.changed();
+    }//GEN-LAST:event_adaptiveSamplingCheckboxActionPerformed
+
+    private void mipAccelerationCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mipAccelerationCheckboxActionPerformed
+        renderer.setMipAcceleration(((JCheckBox) evt.getSource()).isSelected());
+        renderer.changed();
+    }//GEN-LAST:event_mipAccelerationCheckboxActionPerformed
+
+    private void mipTrilinearCheckboxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mipTrilinearCheckboxActionPerformed
+        renderer.setMipTrilinear(((JCheckBox) evt.getSource()).isSelected());
+        renderer.changed();
+    }//GEN-LAST:event_mipTrilinearCheckboxActionPerformed
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JTextField IsovalueTextBox;
     private javax.swing.JTextField IsovalueTextBox1;
+    private javax.swing.JCheckBox adaptiveSamplingCheckbox;
     private javax.swing.ButtonGroup buttonGroup1;
     private javax.swing.ButtonGroup buttonGroup2;
     private javax.swing.JButton colorButton;
@@ -452,10 +570,16 @@ public class RaycastRendererPanel extends javax.swing.JPanel {
     private javax.swing.JLabel jLabel5;
     private javax.swing.JLabel jLabel6;
     private javax.swing.JLabel jLabel7;
+    private javax.swing.JCheckBox mipAccelerationCheckbox;
     private javax.swing.JRadioButton mipButton;
     private javax.swing.JRadioButton mipButton2;
+    private javax.swing.JCheckBox mipTrilinearCheckbox;
+    private javax.swing.JCheckBox preIntegrationCheckbox;
     private javax.swing.JLabel renderingSpeedLabel;
     private javax.swing.JCheckBox shadingCheckbox;
+    private javax.swing.JLabel sliceOffsetLabel;
+    private javax.swing.JSlider sliceOffsetSlider;
+    private javax.swing.JCheckBox sliceTransferFunctionCheckbox;
     private javax.swing.JRadioButton slicerButton;
     private javax.swing.JRadioButton slicerButton2;
     private javax.swing.JRadioButton tf2dButton;
@@ -9,12 +9,14 @@ package gui;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.event.HierarchyEvent;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 import javax.swing.JColorChooser;
+import javax.swing.SwingWorker;
 import util.TFChangeListener;
 import volume.GradientVolume;
 import volume.Volume;
-import volume.VoxelGradient;
 import volvis.TFColor;
 import volvis.TransferFunction2D;
 
@@ -34,6 +36,7 @@ public class TransferFunction2DEditor extends javax.swing.JPanel {
     public double[] histogram;
     private short maxIntensity;
     public double maxGradientMagnitude;
+    private SwingWorker<double[], Void> histogramWorker;
     private ArrayList<TFChangeListener> listeners = new ArrayList<TFChangeListener>();
 
     
@@ -42,13 +45,15 @@ public class TransferFunction2DEditor extends javax.swing.JPanel {
 
         this.vol = volume;
         this.gradvol = gradientvolume;
-        compute2Dhistogram();
+        maxIntensity = vol.getMaximum();
+        xbins = maxIntensity + 1;
+        ybins = 300;
 
         this.tfView = new TransferFunction2DView(this);
         plotPanel.setLayout(new BorderLayout());
         plotPanel.add(tfView, BorderLayout.CENTER);
         labelGradMin.setText("0.0");
-        labelGradMax.setText(Double.toString(Math.floor(10 * maxGradientMagnitude) / 10));
+        labelGradMax.setText("");
         labelMinVal.setText("0");
         labelMaxVal.setText(Integer.toString(maxIntensity));
 
@@ -57,6 +62,13 @@ public class TransferFunction2DEditor extends javax.swing.JPanel {
         tf2D.SetBaseRadius((short) (maxIntensity / 2), 0.2*maxIntensity);
         
         setSelectedInfo();
+
+        // the histogram needs the gradients of the whole volume, so it is only computed once the editor is shown
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing()) {
+                compute2Dhistogram();
+            }
+        });
     }
 
     public void addTFChangeListener(TFChangeListener l) {
@@ -71,25 +83,34 @@ public class TransferFunction2DEditor extends javax.swing.JPanel {
         }
     }
     
-    // Updates the histogram using the gradient
+    // Updates the histogram using the gradient, in the background. The gradient volume computes the
+    // histogram once, and the front and back editors share it.
     private void compute2Dhistogram() {
-        maxIntensity = vol.getMaximum();
-        maxGradientMagnitude = gradvol.getMaxGradientMagnitude();
-
-        System.out.println("maxIntensity = " + maxIntensity);
-        System.out.println("max gradient = " + maxGradientMagnitude);
-
-        xbins = maxIntensity + 1;
-        ybins = 300;
-
-        histogram = new double[xbins * ybins];
-        int volumeSize = vol.getDimX() * vol.getDimY() * vol.getDimZ();
-        for (int i = 0; i < volumeSize; i++) {
-            short voxelVal = vol.getVoxel(i);
-            VoxelGradient grad = gradvol.getVoxel(i);
-            int yPos = (int) Math.floor(((ybins - 1) * grad.mag) / maxGradientMagnitude);
-            histogram[yPos * xbins + voxelVal] += 1;
+        if (histogramWorker != null) {
+            return;
         }
+        histogramWorker = new SwingWorker<double[], Void>() {
+            @Override
+            protected double[] doInBackground() {
+                return gradvol.getHistogram2D(ybins);
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    histogram = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    return;
+                }
+                maxGradientMagnitude = gradvol.getMaxGradientMagnitude();
+                System.out.println("maxIntensity = " + maxIntensity);
+                System.out.println("max gradient = " + maxGradientMagnitude);
+                labelGradMax.setText(Double.toString(Math.floor(10 * maxGradientMagnitude) / 10));
+                tfView.repaint();
+            }
+        };
+        histogramWorker.execute();
     }
 
     public void setSelectedInfo() {
@@ -59,22 +59,25 @@ public class TransferFunction2DView extends javax.swing.JPanel {
         g2.setColor(Color.white);
         g2.fillRect(0, 0, w, h);
         
-        double maxHistoMagnitude = ed.histogram[0];
-        for (int i = 0; i < ed.histogram.length; i++) {
-            maxHistoMagnitude = ed.histogram[i] > maxHistoMagnitude ? ed.histogram[i] : maxHistoMagnitude;
-        }
-        
         double binWidth = (double) w / (double) ed.xbins;
         double binHeight = (double) h / (double) ed.ybins;
-        maxHistoMagnitude = Math.log(maxHistoMagnitude);
-        
-        
-        for (int y = 0; y < ed.ybins; y++) {
-            for (int x = 0; x < ed.xbins; x++) {
-                if (ed.histogram[y * ed.xbins + x] > 0) {
-                    int intensity = (int) Math.floor(255 * (1.0 - Math.log(ed.histogram[y * ed.xbins + x]) / maxHistoMagnitude));
-                    g2.setColor(new Color(intensity, intensity, intensity));
-                    g2.fill(new Rectangle2D.Double(x * binWidth, h - (y * binHeight), binWidth, binHeight));
+
+        // the histogram is computed in the background the first time the editor is shown
+        double[] histogram = ed.histogram;
+        if (histogram != null) {
+            double maxHistoMagnitude = histogram[0];
+            for (int i = 0; i < histogram.length; i++) {
+                maxHistoMagnitude = histogram[i] > maxHistoMagnitude ? histogram[i] : maxHistoMagnitude;
+            }
+            maxHistoMagnitude = Math.log(maxHistoMagnitude);
+
+            for (int y = 0; y < ed.ybins; y++) {
+                for (int x = 0; x < ed.xbins; x++) {
+                    if (histogram[y * ed.xbins + x] > 0) {
+                        int intensity = (int) Math.floor(255 * (1.0 - Math.log(histogram[y * ed.xbins + x]) / maxHistoMagnitude));
+                        g2.setColor(new Color(intensity, intensity, intensity));
+                        g2.fill(new Rectangle2D.Double(x * binWidth, h - (y * binHeight), binWidth, binHeight));
+                    }
                 }
             }
         }
@@ -94,10 +94,11 @@ public class TransferFunctionView extends javax.swing.JPanel {
         }
 
 
+        TFColor c = new TFColor();
         for (int i = 0; i < w; i++) {
             double t = (1.0 * i) / (w - 1);
             int s = (int) (t * range + min);
-            TFColor c = tfunc.getColor(s);
+            tfunc.getColor(s, c);
             g2.setColor(new Color((float) c.r, (float) c.g, (float) c.b));
             g2.fillRect(i, h + 5, 1, h + 30);
         }
@@ -184,8 +185,7 @@ public class TransferFunctionView extends javax.swing.JPanel {
             double a = (h - dragEnd.y) / h;
             //System.out.println("a = " + a);
 
-            tfunc.updateControlPointScalar(selected, s);
-            tfunc.updateControlPointAlpha(selected, a);
+            tfunc.updateControlPoint(selected, s, a);
             editor.setSelectedInfo(selected, s, a, controlPoints.get(selected).color);
             repaint();
 
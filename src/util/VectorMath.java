@@ -28,9 +28,10 @@ public class VectorMath {
 
     // compute distance between vectors v and w
     public static double distance(double[] v, double[] w) {
-        double[] tmp = new double[3];
-        VectorMath.setVector(tmp, v[0]-w[0], v[1]-w[1], v[2]-w[2]);
-        return Math.sqrt(VectorMath.dotproduct(tmp, tmp));
+        double dx = v[0]-w[0];
+        double dy = v[1]-w[1];
+        double dz = v[2]-w[2];
+        return Math.sqrt(dx*dx + dy*dy + dz*dz);
     }
 
     // compute dotproduct of v and w
@@ -71,4 +72,35 @@ public class VectorMath {
         
         return r;
     }
+
+    // compute the 4x4 column major matrix rotating angle degrees around axis (x, y, z), like glRotated
+    public static double[] rotationMatrix(double angle, double x, double y, double z) {
+        double l = Math.sqrt(x*x + y*y + z*z);
+        x /= l;
+        y /= l;
+        z /= l;
+        double c = Math.cos(Math.toRadians(angle));
+        double s = Math.sin(Math.toRadians(angle));
+        return new double[] {
+            x*x*(1-c) + c,   y*x*(1-c) + z*s, x*z*(1-c) - y*s, 0,
+            x*y*(1-c) - z*s, y*y*(1-c) + c,   y*z*(1-c) + x*s, 0,
+            x*z*(1-c) + y*s, y*z*(1-c) - x*s, z*z*(1-c) + c,   0,
+            0,               0,               0,               1
+        };
+    }
+
+    // compute the product a * b of 4x4 column major matrices, like glMultMatrixd
+    public static double[] multiplyMatrix(double[] a, double[] b) {
+        double[] r = new double[16];
+        for (int col=0; col<4; col++) {
+            for (int row=0; row<4; row++) {
+                double sum = 0;
+                for (int k=0; k<4; k++) {
+                    sum += a[k*4 + row] * b[col*4 + k];
+                }
+                r[col*4 + row] = sum;
+            }
+        }
+        return r;
+    }
 }
@@ -0,0 +1,159 @@
+package volume;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gradients of a {@link Volume}, computed one brick at a time the first time
+ * they are needed. A brick holds the gradients of {@link #BRICK_SIZE}^3 cells
+ * plus the first voxel layer of its upper neighbours, so every corner of a
+ * cell lies in the same brick. Bricks are kept until their total size exceeds
+ * the memory budget, after which the least recently used bricks are evicted.
+ * <p>
+ * Lookups of resident bricks do not lock, so any number of render threads can
+ * share a cache. The cache keeps a clock that advances whenever a brick is
+ * loaded, and a lookup stamps its brick with the clock unless the brick
+ * already has that stamp, so lookups between two loads only read shared
+ * state. The resident bricks are queued by the stamp they had when they were
+ * last checked, and a brick whose stamp moved on since is queued again when
+ * it reaches the head, so the brick evicted is a least recently used one,
+ * with recency counted in loads.
+ */
+class GradientBrickCache {
+
+    /**
+     * Number of cells along each side of a brick.
+     */
+    static final int BRICK_SIZE = 16;
+
+    /**
+     * Number of voxels along each side of a brick, including the apron.
+     */
+    static final int BRICK_VOXELS = BRICK_SIZE + 1;
+
+    GradientBrickCache(Volume vol, long budget) {
+        volume = vol;
+        countX = bricks(vol.getDimX());
+        countY = bricks(vol.getDimY());
+        countZ = bricks(vol.getDimZ());
+        int count = countX * countY * countZ;
+        bricks = new AtomicReferenceArray<>(count);
+        lastUse = new AtomicLongArray(count);
+        brickBytes = 3L * 4 * BRICK_VOXELS * BRICK_VOXELS * BRICK_VOXELS;
+        // the budget always fits at least one brick
+        maxResident = (int) Math.max(1, Math.min(count, budget / brickBytes));
+    }
+
+    /**
+     * Gets the brick containing a cell, computing it if it is not resident.
+     *
+     * @param bx Brick index along x, the cell x coordinate divided by
+     *           BRICK_SIZE.
+     * @param by Brick index along y.
+     * @param bz Brick index along z.
+     * @return Interleaved x, y, z gradient components of the voxels of the
+     * brick, with a stride of BRICK_VOXELS voxels between rows.
+     */
+    float[] getBrick(int bx, int by, int bz) {
+        int brick = bx + countX * (by + countY * bz);
+        float[] data = bricks.get(brick);
+        if (data == null) {
+            return load(brick, bx, by, bz);
+        }
+        long now = clock.get();
+        if (lastUse.get(brick) != now) {
+            lastUse.set(brick, now);
+        }
+        return data;
+    }
+
+    /**
+     * Gets the number of bytes taken by the resident bricks.
+     */
+    synchronized long getResidentBytes() {
+        return resident * brickBytes;
+    }
+
+    private synchronized float[] load(int brick, int bx, int by, int bz) {
+        // another thread may have loaded the brick while this one waited
+        float[] data = bricks.get(brick);
+        if (data != null) {
+            lastUse.set(brick, clock.get());
+            return data;
+        }
+
+        while (resident >= maxResident) {
+            evictLeastRecentlyUsed();
+        }
+        data = compute(bx, by, bz);
+        long stamp = clock.incrementAndGet();
+        lastUse.set(brick, stamp);
+        bricks.set(brick, data);
+        queue.add(new long[]{stamp, brick});
+        resident++;
+        return data;
+    }
+
+    private void evictLeastRecentlyUsed() {
+        while (true) {
+            long[] head = queue.poll();
+            int victim = (int) head[1];
+            long used = lastUse.get(victim);
+            if (used != head[0]) {
+                // used since it was queued, check it again once the bricks used before are checked
+                head[0] = used;
+                queue.add(head);
+                continue;
+            }
+            // threads still reading the brick keep their own reference to it
+            bricks.set(victim, null);
+            resident--;
+            return;
+        }
+    }
+
+    private float[] compute(int bx, int by, int bz) {
+        float[] data = new float[3 * BRICK_VOXELS * BRICK_VOXELS * BRICK_VOXELS];
+        int x0 = bx * BRICK_SIZE, y0 = by * BRICK_SIZE, z0 = bz * BRICK_SIZE;
+        int x1 = Math.min(x0 + BRICK_SIZE, volume.getDimX() - 1);
+        int y1 = Math.min(y0 + BRICK_SIZE, volume.getDimY() - 1);
+        int z1 = Math.min(z0 + BRICK_SIZE, volume.getDimZ() - 1);
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                int offset = 3 * BRICK_VOXELS * ((y - y0) + BRICK_VOXELS * (z - z0));
+                for (int x = x0; x <= x1; x++) {
+                    GradientVolume.computeGradient(volume, x, y, z, data, offset + 3 * (x - x0));
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Number of bricks needed to cover the cells along an axis.
+     */
+    private static int bricks(int dim) {
+        return Math.max(1, (dim - 2 + BRICK_SIZE) / BRICK_SIZE);
+    }
+
+    private final Volume volume;
+    private final int countX, countY, countZ;
+    private final AtomicReferenceArray<float[]> bricks;
+    /**
+     * Value of the clock when each brick was last used. The clock advances
+     * on every load.
+     */
+    private final AtomicLongArray lastUse;
+    private final AtomicLong clock = new AtomicLong();
+    /**
+     * The resident bricks, as {stamp, brick} pairs, least recent stamp first.
+     * Guarded by the cache lock.
+     */
+    private final PriorityQueue<long[]> queue = new PriorityQueue<>(Comparator.comparingLong(entry -> entry[0]));
+    private final long brickBytes;
+    private final int maxResident;
+    private int resident;
+}
@@ -4,9 +4,20 @@
  */
 package volume;
 
-import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
+ * Gradients of a volume, computed with central differences. They are either
+ * computed up front and stored per voxel, or, see
+ * {@link #GradientVolume(Volume, long)}, computed lazily from the volume. Lazy
+ * gradient volumes are read-only: their gradients always follow the volume,
+ * and {@link #setGradient(int, int, int, VoxelGradient)} and
+ * {@link #setVoxel(int, VoxelGradient)} throw
+ * {@link UnsupportedOperationException}. Use {@link #isLazy()} to tell them
+ * apart.
+ *
  * @author michel
  */
 public class GradientVolume {
@@ -17,17 +28,77 @@ public class GradientVolume {
     private final static VoxelGradient ZERO_GRADIENT = new VoxelGradient();
 
     public GradientVolume(Volume vol) {
+        this(vol, false);
+    }
+
+    public GradientVolume(Volume vol, boolean quantized) {
+        this(vol, quantized, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates the gradient volume of vol. The gradients are stored as three
+     * interleaved floats per voxel, or, when quantized, as three interleaved
+     * shorts per voxel plus a precomputed magnitude. Central differences of
+     * volumes whose values span at most 32767 are multiples of 0.5 that fit
+     * in a short, so for those volumes quantization is lossless.
+     *
+     * @param vol       Volume to compute the gradients of.
+     * @param quantized Whether to store the gradients as shorts.
+     * @param pool      Pool computing the gradients, slab by slab along z.
+     */
+    public GradientVolume(Volume vol, boolean quantized, ForkJoinPool pool) {
         volume = vol;
         dimX = vol.getDimX();
         dimY = vol.getDimY();
         dimZ = vol.getDimZ();
-        data = new VoxelGradient[dimX * dimY * dimZ];
-        compute();
+        int size = dimX * dimY * dimZ;
+        if (quantized) {
+            scale = (float) Math.max(0.5, (vol.getMaximum() - vol.getMinimum()) / 2.0 / Short.MAX_VALUE);
+            quantizedData = new short[3 * size];
+            magnitudes = new float[size];
+            data = null;
+        } else {
+            scale = 1;
+            quantizedData = null;
+            magnitudes = null;
+            data = new float[3 * size];
+        }
+        cache = null;
+        maxmag = pool.invoke(new ComputeTask(1, Math.max(1, dimZ - 1)));
+    }
+
+    /**
+     * Creates a gradient volume of vol that computes its gradients lazily, a
+     * brick at a time, the first time a tri-linear sample needs them. At most
+     * budget bytes of bricks are kept, evicting the least recently used ones.
+     * The gradients cannot be overwritten. Per voxel gradients and magnitudes are computed from the volume on
+     * every call, and the maximum gradient magnitude in parallel on its first
+     * call.
+     *
+     * @param vol    Volume to compute the gradients of.
+     * @param budget Memory budget of the bricks, in bytes.
+     */
+    public GradientVolume(Volume vol, long budget) {
+        volume = vol;
+        dimX = vol.getDimX();
+        dimY = vol.getDimY();
+        dimZ = vol.getDimZ();
+        scale = 1;
+        data = null;
+        quantizedData = null;
+        magnitudes = null;
+        cache = new GradientBrickCache(vol, budget);
         maxmag = -1.0;
     }
 
-    private VoxelGradient getGradient(int x, int y, int z) {
-        return data[x + dimX * (y + dimY * z)];
+    /**
+     * Gets one component of a stored gradient.
+     *
+     * @param i Index of the component, three times the voxel index plus 0, 1
+     *          or 2 for x, y or z.
+     */
+    private float component(int i) {
+        return data != null ? data[i] : quantizedData[i] * scale;
     }
 
     /**
@@ -57,7 +128,7 @@ public class GradientVolume {
         int z = (int) Math.round(dz);
 
         // Finally, get the gradient from GradientVolume for the corresponding coordinates
-        return getGradient(x, y, z);
+        return getVoxel(x + dimX * (y + dimY * z));
     }
 
     /**
@@ -67,10 +138,23 @@ public class GradientVolume {
      * @return The voxel gradient.
      */
     public VoxelGradient getGradientTrilinear(double[] coord) {
+        return getGradientTrilinear(coord, new VoxelGradient());
+    }
+
+    /**
+     * Gets the corresponding VoxelGradient using Tri-linear interpolation,
+     * without allocating.
+     *
+     * @param coord  Pixel coordinate in 3D space of the voxel we want to get.
+     * @param result Gradient to store the result in.
+     * @return The voxel gradient, stored in result.
+     */
+    public VoxelGradient getGradientTrilinear(double[] coord, VoxelGradient result) {
 
         if (coord[0] < 0 || coord[0] > (volume.getDimX() - 2) || coord[1] < 0 || coord[1] > (volume.getDimY() - 2)
                 || coord[2] < 0 || coord[2] > (volume.getDimZ() - 2)) {
-            return ZERO_GRADIENT;
+            result.x = result.y = result.z = result.mag = 0;
+            return result;
         }
         /* notice that in this framework we assume that the distance between neighbouring voxels is 1 in all directions*/
         int x = (int) Math.floor(coord[0]);
@@ -81,33 +165,136 @@ public class GradientVolume {
         float yFactor = (float) coord[1] - y;
         float zFactor = (float) coord[2] - z;
 
-        VoxelGradient g0, g1, g2, g3, g4, g5;
+        if (cache != null) {
+            int size = GradientBrickCache.BRICK_SIZE;
+            int bx = x / size, by = y / size, bz = z / size;
+            float[] brick = cache.getBrick(bx, by, bz);
+            int voxels = GradientBrickCache.BRICK_VOXELS;
+            int i000 = 3 * ((x - bx * size) + voxels * ((y - by * size) + voxels * (z - bz * size)));
+            int i010 = i000 + 3 * voxels;
+            int i001 = i000 + 3 * voxels * voxels;
+            int i011 = i001 + 3 * voxels;
+            result.x = interpolateCorners(brick, i000, i010, i001, i011, xFactor, yFactor, zFactor);
+            result.y = interpolateCorners(brick, i000 + 1, i010 + 1, i001 + 1, i011 + 1, xFactor, yFactor, zFactor);
+            result.z = interpolateCorners(brick, i000 + 2, i010 + 2, i001 + 2, i011 + 2, xFactor, yFactor, zFactor);
+            result.mag = (float) Math.sqrt(result.x * result.x + result.y * result.y + result.z * result.z);
+            return result;
+        }
 
-        // Interpolate the x-axis
-        g0 = interpolateGradient(getGradient(x, y, z), getGradient(x + 1, y, z), xFactor);
-        g1 = interpolateGradient(getGradient(x, y + 1, z), getGradient(x + 1, y + 1, z), xFactor);
-        g2 = interpolateGradient(getGradient(x, y, z + 1), getGradient(x + 1, y, z + 1), xFactor);
-        g3 = interpolateGradient(getGradient(x, y + 1, z + 1), getGradient(x + 1, y + 1, z + 1), xFactor);
+        // component indices of the 8 corners, the x, y and z components of a corner are adjacent
+        int i000 = 3 * (x + dimX * (y + dimY * z));
+        int i010 = i000 + 3 * dimX;
+        int i001 = i000 + 3 * dimX * dimY;
+        int i011 = i001 + 3 * dimX;
 
-        // Interpolate the y-axis
-        g4 = interpolateGradient(g0, g1, yFactor);
-        g5 = interpolateGradient(g2, g3, yFactor);
+        // Interpolate the x-axis, then the y-axis and finally the z-axis, one component at a time
+        result.x = interpolateCorners(i000, i010, i001, i011, xFactor, yFactor, zFactor);
+        result.y = interpolateCorners(i000 + 1, i010 + 1, i001 + 1, i011 + 1, xFactor, yFactor, zFactor);
+        result.z = interpolateCorners(i000 + 2, i010 + 2, i001 + 2, i011 + 2, xFactor, yFactor, zFactor);
+        result.mag = (float) Math.sqrt(result.x * result.x + result.y * result.y + result.z * result.z);
+        return result;
+    }
 
-        // Interpolate the z-axis and return the result
-        return interpolateGradient(g4, g5, zFactor);
+    /**
+     * Tri-linearly interpolates one gradient component from the 8 corners of
+     * a cell. The corner at index i + 3 is the x neighbour of the corner at
+     * index i.
+     */
+    private float interpolateCorners(int i000, int i010, int i001, int i011,
+                                     float xFactor, float yFactor, float zFactor) {
+        return interpolate(
+                interpolate(interpolate(component(i000), component(i000 + 3), xFactor),
+                        interpolate(component(i010), component(i010 + 3), xFactor), yFactor),
+                interpolate(interpolate(component(i001), component(i001 + 3), xFactor),
+                        interpolate(component(i011), component(i011 + 3), xFactor), yFactor), zFactor);
     }
 
+    /**
+     * Tri-linearly interpolates one gradient component from the 8 corners of
+     * a cell of a brick, like {@link #interpolateCorners(int, int, int, int, float, float, float)}.
+     */
+    private static float interpolateCorners(float[] brick, int i000, int i010, int i001, int i011,
+                                            float xFactor, float yFactor, float zFactor) {
+        return interpolate(
+                interpolate(interpolate(brick[i000], brick[i000 + 3], xFactor),
+                        interpolate(brick[i010], brick[i010 + 3], xFactor), yFactor),
+                interpolate(interpolate(brick[i001], brick[i001 + 3], xFactor),
+                        interpolate(brick[i011], brick[i011 + 3], xFactor), yFactor), zFactor);
+    }
 
+    /**
+     * Overwrites the gradient of a voxel.
+     *
+     * @throws UnsupportedOperationException If the gradients are lazy.
+     */
     public void setGradient(int x, int y, int z, VoxelGradient value) {
-        data[x + dimX * (y + dimY * z)] = value;
+        setGradient(x + dimX * (y + dimY * z), value.x, value.y, value.z);
     }
 
+    /**
+     * Overwrites the gradient of a voxel.
+     *
+     * @throws UnsupportedOperationException If the gradients are lazy.
+     */
     public void setVoxel(int i, VoxelGradient value) {
-        data[i] = value;
+        setGradient(i, value.x, value.y, value.z);
     }
 
+    /**
+     * Gets the gradient of a voxel as a new VoxelGradient. Prefer
+     * {@link #getGradientMagnitude(int)} when only the magnitude is needed.
+     *
+     * @param i Index of the voxel.
+     * @return The voxel gradient.
+     */
     public VoxelGradient getVoxel(int i) {
-        return data[i];
+        if (cache != null) {
+            float[] g = new float[3];
+            computeGradient(volume, i % dimX, (i / dimX) % dimY, i / (dimX * dimY), g, 0);
+            return new VoxelGradient(g[0], g[1], g[2]);
+        }
+        return new VoxelGradient(component(3 * i), component(3 * i + 1), component(3 * i + 2));
+    }
+
+    /**
+     * Gets the gradient magnitude of a voxel without creating a VoxelGradient.
+     *
+     * @param i Index of the voxel.
+     * @return The gradient magnitude.
+     */
+    public float getGradientMagnitude(int i) {
+        if (magnitudes != null) {
+            return magnitudes[i];
+        }
+        if (cache != null) {
+            return computeMagnitude(i % dimX, (i / dimX) % dimY, i / (dimX * dimY));
+        }
+        float x = data[3 * i], y = data[3 * i + 1], z = data[3 * i + 2];
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Whether the gradients are stored quantized as shorts.
+     */
+    public boolean isQuantized() {
+        return quantizedData != null;
+    }
+
+    /**
+     * Whether the gradients are computed lazily in bricks.
+     */
+    public boolean isLazy() {
+        return cache != null;
+    }
+
+    /**
+     * Gets the number of bytes taken by the gradients currently in memory.
+     */
+    public long getMemoryUsage() {
+        if (cache != null) {
+            return cache.getResidentBytes();
+        }
+        return data != null ? 4L * data.length : 2L * quantizedData.length + 4L * magnitudes.length;
     }
 
     public int getDimX() {
@@ -122,55 +309,244 @@ public class GradientVolume {
         return dimZ;
     }
 
+    private void setGradient(int i, float gx, float gy, float gz) {
+        if (cache != null) {
+            throw new UnsupportedOperationException("Lazy gradients are computed from the volume");
+        }
+        store(i, gx, gy, gz);
+        maxmag = -1.0;
+        histogram2D = null;
+    }
+
     /**
-     * Computes the gradient information of the volume according to Levoy's
-     * paper.
+     * Stores the gradient of a voxel, rounding it to the quantization step if
+     * the gradients are quantized.
+     *
+     * @return The magnitude of the stored gradient.
      */
-    private void compute() {
-        // this just initializes all gradients to the vector (0,0,0)
-        Arrays.fill(data, zero);
-        for (int i=1; i< volume.getDimX()-1; i++) {
-            for (int j = 1; j < volume.getDimY() - 1; j++) {
-                for (int k = 1; k < volume.getDimZ() - 1; k++) {
+    private float store(int i, float gx, float gy, float gz) {
+        if (cache != null) {
+            // nothing is stored, only the magnitude is needed
+            return (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        } else if (data != null) {
+            data[3 * i] = gx;
+            data[3 * i + 1] = gy;
+            data[3 * i + 2] = gz;
+            return (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+        } else {
+            quantizedData[3 * i] = quantize(gx);
+            quantizedData[3 * i + 1] = quantize(gy);
+            quantizedData[3 * i + 2] = quantize(gz);
+            float x = component(3 * i), y = component(3 * i + 1), z = component(3 * i + 2);
+            magnitudes[i] = (float) Math.sqrt(x * x + y * y + z * z);
+            return magnitudes[i];
+        }
+    }
+
+    private short quantize(float value) {
+        long q = Math.round(value / scale);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    /**
+     * Computes the gradient information of the slices [z0, z1) according to
+     * Levoy's paper. The border voxels keep the zero gradient the arrays
+     * start out with.
+     *
+     * @return The largest gradient magnitude in the slices.
+     */
+    private float compute(int z0, int z1) {
+        float maximum = 0;
+        for (int k = z0; k < z1; k++) {
+            for (int j = 1; j < dimY - 1; j++) {
+                for (int i = 1; i < dimX - 1; i++) {
                     double gx = (volume.getVoxel(i - 1, j, k) - volume.getVoxel(i + 1, j, k)) / 2.0;
                     double gy = (volume.getVoxel(i, j - 1, k) - volume.getVoxel(i, j + 1, k)) / 2.0;
                     double gz = (volume.getVoxel(i, j, k - 1) - volume.getVoxel(i, j, k + 1)) / 2.0;
                     float gxf = (float) gx;
                     float gyf = (float) gy;
                     float gzf = (float) gz;
-                    setGradient(i, j, k, new VoxelGradient(gxf, gyf, gzf));
+                    float mag = store(i + dimX * (j + dimY * k), gxf, gyf, gzf);
+                    maximum = mag > maximum ? mag : maximum;
                 }
             }
         }
+        return maximum;
+    }
 
+    /**
+     * Computes the gradient of voxel (x, y, z) like {@link #compute(int, int)}
+     * and stores its x, y, z components in g, starting at offset.
+     */
+    static void computeGradient(Volume vol, int x, int y, int z, float[] g, int offset) {
+        if (x < 1 || x >= vol.getDimX() - 1 || y < 1 || y >= vol.getDimY() - 1 || z < 1 || z >= vol.getDimZ() - 1) {
+            g[offset] = g[offset + 1] = g[offset + 2] = 0;
+            return;
+        }
+        double gx = (vol.getVoxel(x - 1, y, z) - vol.getVoxel(x + 1, y, z)) / 2.0;
+        double gy = (vol.getVoxel(x, y - 1, z) - vol.getVoxel(x, y + 1, z)) / 2.0;
+        double gz = (vol.getVoxel(x, y, z - 1) - vol.getVoxel(x, y, z + 1)) / 2.0;
+        g[offset] = (float) gx;
+        g[offset + 1] = (float) gy;
+        g[offset + 2] = (float) gz;
     }
 
-    private VoxelGradient interpolateGradient(VoxelGradient g0, VoxelGradient g1, float factor) {
-        VoxelGradient result = new VoxelGradient();
-        result.x = g1.x * factor + g0.x * (1 - factor);
-        result.y = g1.y * factor + g0.y * (1 - factor);
-        result.z = g1.z * factor + g0.z * (1 - factor);
-        result.mag = (float) Math.sqrt(result.x * result.x + result.y * result.y + result.z * result.z);
+    private float computeMagnitude(int x, int y, int z) {
+        if (x < 1 || x >= dimX - 1 || y < 1 || y >= dimY - 1 || z < 1 || z >= dimZ - 1) {
+            return 0;
+        }
+        float gx = (float) ((volume.getVoxel(x - 1, y, z) - volume.getVoxel(x + 1, y, z)) / 2.0);
+        float gy = (float) ((volume.getVoxel(x, y - 1, z) - volume.getVoxel(x, y + 1, z)) / 2.0);
+        float gz = (float) ((volume.getVoxel(x, y, z - 1) - volume.getVoxel(x, y, z + 1)) / 2.0);
+        return (float) Math.sqrt(gx * gx + gy * gy + gz * gz);
+    }
 
-        return result;
+    /**
+     * Computes the gradients of a range of z-slices, splitting it in halves
+     * until it is at most SLAB_SIZE slices thick, and reduces the largest
+     * gradient magnitude of the range.
+     */
+    private class ComputeTask extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        ComputeTask(int z0, int z1) {
+            this.z0 = z0;
+            this.z1 = z1;
+        }
+
+        @Override
+        protected Double compute() {
+            if (z1 - z0 <= SLAB_SIZE) {
+                return (double) GradientVolume.this.compute(z0, z1);
+            }
+            int mid = (z0 + z1) >>> 1;
+            ComputeTask upper = new ComputeTask(mid, z1);
+            upper.fork();
+            double lower = new ComputeTask(z0, mid).compute();
+            return Math.max(lower, upper.join());
+        }
+
+        private final int z0, z1;
+    }
+
+    private static float interpolate(float g0, float g1, float factor) {
+        return g1 * factor + g0 * (1 - factor);
+    }
+
+    /**
+     * Gets the 2D histogram of the voxel values against their gradient
+     * magnitudes. The count of value v and magnitude bin m, the magnitudes
+     * from 0 to the maximum gradient magnitude being split in magnitudeBins
+     * bins, is at index v + (maximum value + 1) * m. The histogram is
+     * computed in parallel the first time it is needed and shared by every
+     * caller after that, so it must not be modified.
+     *
+     * @param magnitudeBins Number of gradient magnitude bins.
+     * @return The histogram.
+     */
+    public synchronized double[] getHistogram2D(int magnitudeBins) {
+        if (histogram2D != null && histogramBins == magnitudeBins) {
+            return histogram2D;
+        }
+        int valueBins = volume.getMaximum() + 1;
+        double maxMagnitude = getMaxGradientMagnitude();
+        int size = dimX * dimY * dimZ;
+        // the magnitude bin of every voxel is found in parallel, counting them is cheap
+        short[] bins = new short[size];
+        ForkJoinPool.commonPool().invoke(new BinTask(bins, magnitudeBins, maxMagnitude, 0, dimZ));
+        double[] histogram = new double[valueBins * magnitudeBins];
+        for (int i = 0; i < size; i++) {
+            histogram[bins[i] * valueBins + volume.getVoxel(i)] += 1;
+        }
+        histogram2D = histogram;
+        histogramBins = magnitudeBins;
+        return histogram;
+    }
+
+    /**
+     * Finds the gradient magnitude bins of the voxels of a range of z-slices,
+     * splitting it in halves until it is at most SLAB_SIZE slices thick.
+     */
+    private class BinTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        BinTask(short[] bins, int magnitudeBins, double maxMagnitude, int z0, int z1) {
+            this.bins = bins;
+            this.magnitudeBins = magnitudeBins;
+            this.maxMagnitude = maxMagnitude;
+            this.z0 = z0;
+            this.z1 = z1;
+        }
+
+        @Override
+        protected void compute() {
+            if (z1 - z0 > SLAB_SIZE) {
+                int mid = (z0 + z1) >>> 1;
+                invokeAll(new BinTask(bins, magnitudeBins, maxMagnitude, z0, mid),
+                        new BinTask(bins, magnitudeBins, maxMagnitude, mid, z1));
+                return;
+            }
+            for (int i = dimX * dimY * z0; i < dimX * dimY * z1; i++) {
+                bins[i] = (short) Math.floor(((magnitudeBins - 1) * getGradientMagnitude(i)) / maxMagnitude);
+            }
+        }
+
+        private final short[] bins;
+        private final int magnitudeBins;
+        private final double maxMagnitude;
+        private final int z0, z1;
     }
 
     public double getMaxGradientMagnitude() {
-        if (maxmag >= 0) {
-            return maxmag;
-        } else {
-            double magnitude = data[0].mag;
-            for (int i = 0; i < data.length; i++) {
-                magnitude = data[i].mag > magnitude ? data[i].mag : magnitude;
+        double magnitude = maxmag;
+        return magnitude >= 0 ? magnitude : computeMaxGradientMagnitude();
+    }
+
+    private synchronized double computeMaxGradientMagnitude() {
+        if (maxmag < 0) {
+            if (cache != null) {
+                // computes the magnitudes slab by slab without storing the gradients, in the
+                // pool of the calling thread if it is a pool thread
+                maxmag = new ComputeTask(1, Math.max(1, dimZ - 1)).invoke();
+            } else {
+                int size = dimX * dimY * dimZ;
+                double magnitude = getGradientMagnitude(0);
+                for (int i = 0; i < size; i++) {
+                    float mag = getGradientMagnitude(i);
+                    magnitude = mag > magnitude ? mag : magnitude;
+                }
+                maxmag = magnitude;
             }
-            maxmag = magnitude;
-            return magnitude;
         }
+        return maxmag;
     }
 
+    /**
+     * Number of z-slices computed by one task.
+     */
+    private static final int SLAB_SIZE = 4;
+
     private int dimX, dimY, dimZ;
-    private VoxelGradient zero = new VoxelGradient();
-    VoxelGradient[] data;
+    /**
+     * Interleaved x, y, z components of the gradients, null when quantized.
+     */
+    private final float[] data;
+    /**
+     * Interleaved quantized x, y, z components, in units of scale, and the
+     * magnitudes of the quantized gradients. Null when not quantized.
+     */
+    private final short[] quantizedData;
+    private final float[] magnitudes;
+    private final float scale;
+    /**
+     * Bricks of lazily computed gradients, null when the gradients are
+     * computed up front.
+     */
+    private final GradientBrickCache cache;
     Volume volume;
-    double maxmag;
+    volatile double maxmag;
+    private double[] histogram2D;
+    private int histogramBins;
 }
@@ -0,0 +1,208 @@
+package volume;
+
+/**
+ * Min/max acceleration structure over a {@link Volume}. The cells of the
+ * volume are grouped in bricks of {@link #BRICK_SIZE}^3 cells, which are the
+ * leaves of an octree. Every node stores the minimum and maximum of the voxels
+ * that a tri-linear sample inside the node can interpolate from, so it does
+ * not depend on any transfer function and only has to be rebuilt when the
+ * volume changes.
+ */
+public class MinMaxOctree {
+
+    /**
+     * Number of cells along each side of a leaf brick.
+     */
+    public static final int BRICK_SIZE = 8;
+
+    public MinMaxOctree(Volume vol) {
+        dimX = vol.getDimX();
+        dimY = vol.getDimY();
+        dimZ = vol.getDimZ();
+
+        int levels = 1;
+        int bx = bricks(dimX), by = bricks(dimY), bz = bricks(dimZ);
+        while (bx > 1 || by > 1 || bz > 1) {
+            bx = (bx + 1) / 2;
+            by = (by + 1) / 2;
+            bz = (bz + 1) / 2;
+            levels++;
+        }
+
+        countX = new int[levels];
+        countY = new int[levels];
+        countZ = new int[levels];
+        min = new short[levels][];
+        max = new short[levels][];
+
+        buildLeaves(vol);
+        for (int level = 1; level < levels; level++) {
+            buildLevel(level);
+        }
+    }
+
+    public int getLevelCount() {
+        return min.length;
+    }
+
+    /**
+     * Gets the size, in cells, of the side of a node.
+     *
+     * @param level Octree level, 0 being the leaf bricks.
+     * @return The node size.
+     */
+    public int getNodeSize(int level) {
+        return BRICK_SIZE << level;
+    }
+
+    public int getNodeCount(int level) {
+        return min[level].length;
+    }
+
+    public int getNodeCountX(int level) {
+        return countX[level];
+    }
+
+    public int getNodeCountY(int level) {
+        return countY[level];
+    }
+
+    public int getNodeCountZ(int level) {
+        return countZ[level];
+    }
+
+    public short getMin(int level, int node) {
+        return min[level][node];
+    }
+
+    public short getMax(int level, int node) {
+        return max[level][node];
+    }
+
+    /**
+     * Gets the largest absolute difference between two neighbouring voxels,
+     * along any axis, in a leaf brick. It bounds the partial derivatives of
+     * the tri-linear interpolation inside the brick, so a sample moving a
+     * distance d changes by at most sqrt(3) * d times this difference.
+     *
+     * @param node Leaf brick.
+     * @return The difference in voxel values.
+     */
+    public int getMaxDifference(int node) {
+        return maxDifference[node];
+    }
+
+    public int getDimX() {
+        return dimX;
+    }
+
+    public int getDimY() {
+        return dimY;
+    }
+
+    public int getDimZ() {
+        return dimZ;
+    }
+
+    /**
+     * Number of leaf bricks needed to cover the cells along an axis.
+     */
+    private static int bricks(int dim) {
+        return Math.max(1, (dim - 2 + BRICK_SIZE - 1) / BRICK_SIZE);
+    }
+
+    /**
+     * Computes the min/max of every leaf brick. A brick also includes the
+     * first voxel layer of its upper neighbours, as tri-linear samples near its
+     * upper faces interpolate from them.
+     */
+    private void buildLeaves(Volume vol) {
+        countX[0] = bricks(dimX);
+        countY[0] = bricks(dimY);
+        countZ[0] = bricks(dimZ);
+        int count = countX[0] * countY[0] * countZ[0];
+        min[0] = new short[count];
+        max[0] = new short[count];
+        maxDifference = new int[count];
+
+        int node = 0;
+        for (int bz = 0; bz < countZ[0]; bz++) {
+            int z0 = bz * BRICK_SIZE;
+            int z1 = Math.min(z0 + BRICK_SIZE, dimZ - 1);
+            for (int by = 0; by < countY[0]; by++) {
+                int y0 = by * BRICK_SIZE;
+                int y1 = Math.min(y0 + BRICK_SIZE, dimY - 1);
+                for (int bx = 0; bx < countX[0]; bx++) {
+                    int x0 = bx * BRICK_SIZE;
+                    int x1 = Math.min(x0 + BRICK_SIZE, dimX - 1);
+                    short lo = Short.MAX_VALUE;
+                    short hi = Short.MIN_VALUE;
+                    int difference = 0;
+                    for (int z = z0; z <= z1; z++) {
+                        for (int y = y0; y <= y1; y++) {
+                            for (int x = x0; x <= x1; x++) {
+                                short value = vol.getVoxel(x, y, z);
+                                lo = value < lo ? value : lo;
+                                hi = value > hi ? value : hi;
+                                if (x < x1) {
+                                    difference = Math.max(difference, Math.abs(vol.getVoxel(x + 1, y, z) - value));
+                                }
+                                if (y < y1) {
+                                    difference = Math.max(difference, Math.abs(vol.getVoxel(x, y + 1, z) - value));
+                                }
+                                if (z < z1) {
+                                    difference = Math.max(difference, Math.abs(vol.getVoxel(x, y, z + 1) - value));
+                                }
+                            }
+                        }
+                    }
+                    min[0][node] = lo;
+                    max[0][node] = hi;
+                    maxDifference[node] = difference;
+                    node++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the min/max of the nodes of a level from its 2x2x2 children.
+     */
+    private void buildLevel(int level) {
+        int cx = countX[level - 1], cy = countY[level - 1], cz = countZ[level - 1];
+        countX[level] = (cx + 1) / 2;
+        countY[level] = (cy + 1) / 2;
+        countZ[level] = (cz + 1) / 2;
+        int count = countX[level] * countY[level] * countZ[level];
+        min[level] = new short[count];
+        max[level] = new short[count];
+
+        int node = 0;
+        for (int nz = 0; nz < countZ[level]; nz++) {
+            for (int ny = 0; ny < countY[level]; ny++) {
+                for (int nx = 0; nx < countX[level]; nx++) {
+                    short lo = Short.MAX_VALUE;
+                    short hi = Short.MIN_VALUE;
+                    for (int z = 2 * nz; z < Math.min(2 * nz + 2, cz); z++) {
+                        for (int y = 2 * ny; y < Math.min(2 * ny + 2, cy); y++) {
+                            for (int x = 2 * nx; x < Math.min(2 * nx + 2, cx); x++) {
+                                int child = x + cx * (y + cy * z);
+                                lo = min[level - 1][child] < lo ? min[level - 1][child] : lo;
+                                hi = max[level - 1][child] > hi ? max[level - 1][child] : hi;
+                            }
+                        }
+                    }
+                    min[level][node] = lo;
+                    max[level][node] = hi;
+                    node++;
+                }
+            }
+        }
+    }
+
+    private final int dimX, dimY, dimZ;
+    private final int[] countX, countY, countZ;
+    private final short[][] min;
+    private final short[][] max;
+    private int[] maxDifference;
+}
@@ -14,42 +14,122 @@ import java.io.IOException;
 public class Volume {
     
     public Volume(int xd, int yd, int zd) {
-        data = new short[xd*yd*zd];
+        this(xd, yd, zd, VoxelLayout.LINEAR);
+    }
+
+    public Volume(int xd, int yd, int zd, VoxelLayout layout) {
+        data = new short[layout.getSize(xd, yd, zd)];
         dimX = xd;
         dimY = yd;
         dimZ = zd;
+        setLayout(layout);
     }
     
     public Volume(File file) {
+        this(file, VoxelLayout.LINEAR);
+    }
+
+    /**
+     * Loads a volume from an AVS field file. A file that cannot be read gives
+     * an empty volume; use {@link #load(File, VoxelLayout)} to get the error.
+     *
+     * @param file   File to load.
+     * @param layout Order in which to store the voxels.
+     */
+    public Volume(File file, VoxelLayout layout) {
         
         try {
-            VolumeIO reader = new VolumeIO(file);
-            dimX = reader.getXDim();
-            dimY = reader.getYDim();
-            dimZ = reader.getZDim();
-            data = reader.getData().clone();
-            computeHistogram();
+            read(new VolumeIO(file, layout), layout);
         } catch (IOException ex) {
             System.out.println("IO exception");
         }
         
     }
+
+    private Volume(VolumeIO reader, VoxelLayout layout) {
+        read(reader, layout);
+    }
+
+    /**
+     * Loads a volume from an AVS field file.
+     *
+     * @param file   File to load.
+     * @param layout Order in which to store the voxels.
+     * @return The volume.
+     * @throws IOException If the file cannot be read.
+     */
+    public static Volume load(File file, VoxelLayout layout) throws IOException {
+        return new Volume(new VolumeIO(file, layout), layout);
+    }
+
+    private void read(VolumeIO reader, VoxelLayout layout) {
+        dimX = reader.getXDim();
+        dimY = reader.getYDim();
+        dimZ = reader.getZDim();
+        data = reader.getData();
+        setLayout(layout);
+        computeHistogram();
+    }
     
     
+    private void setLayout(VoxelLayout layout) {
+        this.layout = layout;
+        int[][] offsets = layout.getOffsets(dimX, dimY, dimZ);
+        offsetX = offsets[0];
+        offsetY = offsets[1];
+        offsetZ = offsets[2];
+    }
+
     public short getVoxel(int x, int y, int z) {
-        return data[x + dimX*(y + dimY * z)];
+        return data[offsetX[x] + offsetY[y] + offsetZ[z]];
     }
     
     public void setVoxel(int x, int y, int z, short value) {
-        data[x + dimX*(y + dimY*z)] = value;
+        data[offsetX[x] + offsetY[y] + offsetZ[z]] = value;
+        rangeValid = false;
     }
 
+    /**
+     * Sets a voxel by its linear index x + dimX * (y + dimY * z), whatever
+     * the layout.
+     */
     public void setVoxel(int i, short value) {
-        data[i] = value;
+        data[storageIndex(i)] = value;
+        rangeValid = false;
     }
     
+    /**
+     * Gets a voxel by its linear index x + dimX * (y + dimY * z), whatever
+     * the layout.
+     */
     public short getVoxel(int i) {
-        return data[i];
+        return data[storageIndex(i)];
+    }
+
+    /**
+     * Gets the index in the data array at which voxel (x, y, z) is stored.
+     */
+    public int getIndex(int x, int y, int z) {
+        return offsetX[x] + offsetY[y] + offsetZ[z];
+    }
+
+    /**
+     * Gets the array the voxels are stored in, see {@link #getIndex(int, int, int)}.
+     * It must not be modified.
+     */
+    public short[] getData() {
+        return data;
+    }
+
+    public VoxelLayout getLayout() {
+        return layout;
+    }
+
+    private int storageIndex(int i) {
+        if (layout == VoxelLayout.LINEAR) {
+            return i;
+        }
+        return offsetX[i % dimX] + offsetY[(i / dimX) % dimY] + offsetZ[i / (dimX * dimY)];
     }
     
     public int getDimX() {
@@ -65,21 +145,40 @@ public class Volume {
     }
 
     public short getMinimum() {
-        short minimum = data[0];
-        for (short datum : data) {
-            minimum = datum < minimum ? datum : minimum;
-        }
+        computeRange();
         return minimum;
     }
 
     public short getMaximum() {
-        short maximum = data[0];
-        for (short datum : data) {
-            maximum = datum > maximum ? datum : maximum;
-        }
+        computeRange();
         return maximum;
     }
 
+    /**
+     * Computes the minimum and maximum voxel value, unless they are still
+     * known from an earlier call.
+     */
+    private synchronized void computeRange() {
+        if (rangeValid) {
+            return;
+        }
+        short lo = data[0];
+        short hi = data[0];
+        for (int z = 0; z < dimZ; z++) {
+            for (int y = 0; y < dimY; y++) {
+                int row = offsetY[y] + offsetZ[z];
+                for (int x = 0; x < dimX; x++) {
+                    short datum = data[row + offsetX[x]];
+                    lo = datum < lo ? datum : lo;
+                    hi = datum > hi ? datum : hi;
+                }
+            }
+        }
+        minimum = lo;
+        maximum = hi;
+        rangeValid = true;
+    }
+
     public int[] getHistogram() {
         return histogram;
     }
@@ -120,12 +219,31 @@ public class Volume {
 
     private void computeHistogram() {
         histogram = new int[getMaximum() + 1];
-        for (short datum : data) {
-            histogram[datum]++;
+        for (int z = 0; z < dimZ; z++) {
+            for (int y = 0; y < dimY; y++) {
+                int row = offsetY[y] + offsetZ[z];
+                for (int x = 0; x < dimX; x++) {
+                    histogram[data[row + offsetX[x]]]++;
+                }
+            }
         }
     }
 
     private int dimX, dimY, dimZ;
+    /**
+     * Voxels in the order given by layout, padded if the layout needs it.
+     */
     private short[] data;
+    private VoxelLayout layout;
+    /**
+     * Offset tables of the layout, voxel (x, y, z) is stored at
+     * offsetX[x] + offsetY[y] + offsetZ[z].
+     */
+    private int[] offsetX, offsetY, offsetZ;
     private int[] histogram;
+    /**
+     * Cached voxel range, valid until a voxel is set.
+     */
+    private short minimum, maximum;
+    private boolean rangeValid;
 }
@@ -8,6 +8,11 @@ import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Scanner;
 
 /**
@@ -17,7 +22,19 @@ import java.util.Scanner;
 public class VolumeIO {
     
     public VolumeIO(File file) throws IOException {
+        this(file, VoxelLayout.LINEAR);
+    }
+
+    /**
+     * Reads an AVS field file, storing its voxels in the given layout.
+     *
+     * @param file   File to read.
+     * @param layout Layout of the data array.
+     * @throws IOException If the file cannot be read.
+     */
+    public VolumeIO(File file, VoxelLayout layout) throws IOException {
         BufferedInputStream stream = null;
+        FileChannel channel = null;
         try {
             stream = new BufferedInputStream(new FileInputStream(file));
             
@@ -31,7 +48,11 @@ public class VolumeIO {
             } 
             stream.reset();
             int headerLength = 1;
-            while (stream.read() != '\f') {
+            int c;
+            while ((c = stream.read()) != '\f') {
+                if (c < 0) {
+                    throw new IOException("File has no end of header");
+                }
                 headerLength++;
             }
             // skip also next ^L
@@ -44,29 +65,68 @@ public class VolumeIO {
                 parseHeader(header);
             }
 
-            int byteCount = x_dim*y_dim*z_dim*data_type;
-            byte[] d = new byte[byteCount];
-
-            if (stream.read(d) == byteCount) {
-                //System.out.println("read " + byteCount + " bytes");
-            }
-            
-            data = new short[x_dim * y_dim * z_dim];
-            if (data_type == 1) { //bytes
-                for (int i=0; i<byteCount; i++) {
-                    data[i] = (short) (d[i] & 0xFF);
-                }
-            } else if (data_type == 2) { //shorts
-                for (int i=0; i<byteCount; i+=2) {
-                    short value = (short) ((d[i]&0xFF) + (d[i+1]&0xFF)*256);
-                    data[i/2] = value;
-                }
-            }
+            // the payload is mapped instead of read, so the only full copy of
+            // the voxels on the heap is the converted data array
+            stream.close();
+            stream = null;
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            this.layout = layout;
+            data = new short[layout.getSize(x_dim, y_dim, z_dim)];
+            readData(channel, headerLength);
             
         } finally {
             if (stream != null) {
                 stream.close();
             }
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts the voxels following the header into data, mapping whole rows
+     * of at most MAX_MAPPING bytes of the file at a time.
+     */
+    private void readData(FileChannel channel, long offset) throws IOException {
+        if (data_type != 1 && data_type != 2) {
+            throw new IOException("Unsupported data type");
+        }
+        long byteCount = (long) x_dim * y_dim * z_dim * data_type;
+        if (channel.size() < offset + byteCount) {
+            throw new IOException("File is shorter than its header claims");
+        }
+
+        int[][] offsets = layout.getOffsets(x_dim, y_dim, z_dim);
+        // rows are contiguous in a linear layout and can be converted in place
+        boolean linear = layout == VoxelLayout.LINEAR;
+        short[] row = linear ? null : new short[x_dim];
+        int rows = y_dim * z_dim;
+        int rowsPerMapping = Math.max(1, MAX_MAPPING / data_type / Math.max(1, x_dim));
+
+        int r = 0;
+        while (r < rows) {
+            int count = Math.min(rows - r, rowsPerMapping);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY,
+                    offset + (long) r * x_dim * data_type, (long) count * x_dim * data_type);
+            ShortBuffer shorts = data_type == 2 ? mapped.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer() : null;
+            for (int i = 0; i < count; i++, r++) {
+                int base = offsets[1][r % y_dim] + offsets[2][r / y_dim];
+                short[] target = linear ? data : row;
+                int start = linear ? base : 0;
+                if (data_type == 1) { //bytes
+                    for (int x = 0; x < x_dim; x++) {
+                        target[start + x] = (short) (mapped.get(i * x_dim + x) & 0xFF);
+                    }
+                } else { //shorts, little endian
+                    shorts.get(target, start, x_dim);
+                }
+                if (!linear) {
+                    for (int x = 0; x < x_dim; x++) {
+                        data[base + offsets[0][x]] = row[x];
+                    }
+                }
+            }
         }
     }
 
@@ -82,6 +142,10 @@ public class VolumeIO {
         return z_dim;
     }
 
+    public VoxelLayout getLayout() {
+        return layout;
+    }
+
     public short[] getData() {
         return data;
     }
@@ -169,8 +233,15 @@ public class VolumeIO {
         }
     }
     
+    /**
+     * Largest part of the file mapped at once, a multiple of every data type
+     * size.
+     */
+    private static final int MAX_MAPPING = 1 << 30;
+
     private int x_dim, y_dim, z_dim;
     private short[] data;
+    private VoxelLayout layout;
     private int data_type;
     
 }
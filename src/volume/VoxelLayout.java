@@ -0,0 +1,71 @@
+package volume;
+
+/**
+ * Order in which a {@link Volume} stores its voxels. Both layouts are
+ * separable: the index of voxel (x, y, z) is the sum of one offset per axis,
+ * so a volume only needs three small offset tables to address its voxels.
+ */
+public enum VoxelLayout {
+
+    /**
+     * Voxel (x, y, z) is stored at x + dimX * (y + dimY * z).
+     */
+    LINEAR,
+    /**
+     * Voxels are grouped in bricks of {@link #BRICK_SIZE}^3, stored one after
+     * the other in x, y, z order, with the voxels of a brick stored linearly.
+     * The 8 corners of a cell then usually share one or two cache lines, in
+     * whichever direction a ray travels. Bricks on the upper faces are padded.
+     */
+    BRICKED;
+
+    /**
+     * Number of voxels along each side of a brick.
+     */
+    public static final int BRICK_SIZE = 8;
+
+    private static final int BRICK_SHIFT = 3;
+    private static final int BRICK_MASK = BRICK_SIZE - 1;
+
+    /**
+     * Gets the number of voxels needed to store a volume, including padding.
+     */
+    public int getSize(int dimX, int dimY, int dimZ) {
+        switch (this) {
+            case BRICKED:
+                return bricks(dimX) * bricks(dimY) * bricks(dimZ) * BRICK_SIZE * BRICK_SIZE * BRICK_SIZE;
+            default:
+                return dimX * dimY * dimZ;
+        }
+    }
+
+    /**
+     * Computes the offset tables of a volume.
+     *
+     * @return The offsets along x, y and z. The index of voxel (x, y, z) is
+     * offsets[0][x] + offsets[1][y] + offsets[2][z].
+     */
+    public int[][] getOffsets(int dimX, int dimY, int dimZ) {
+        int[][] offsets = {new int[dimX], new int[dimY], new int[dimZ]};
+        int[] dims = {dimX, dimY, dimZ};
+        int brickVoxels = BRICK_SIZE * BRICK_SIZE * BRICK_SIZE;
+        int[] brickStrides = {brickVoxels, brickVoxels * bricks(dimX), brickVoxels * bricks(dimX) * bricks(dimY)};
+        int stride = 1;
+        for (int axis = 0; axis < 3; axis++) {
+            int localStride = 1 << (BRICK_SHIFT * axis);
+            for (int i = 0; i < dims[axis]; i++) {
+                if (this == BRICKED) {
+                    offsets[axis][i] = (i >> BRICK_SHIFT) * brickStrides[axis] + (i & BRICK_MASK) * localStride;
+                } else {
+                    offsets[axis][i] = i * stride;
+                }
+            }
+            stride *= dims[axis];
+        }
+        return offsets;
+    }
+
+    private static int bricks(int dim) {
+        return (dim + BRICK_SIZE - 1) / BRICK_SIZE;
+    }
+}
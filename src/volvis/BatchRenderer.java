@@ -0,0 +1,167 @@
+package volvis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import util.VectorMath;
+
+/**
+ * Renders a camera path, e.g. a turntable around the volume, to numbered PNG
+ * files. Frames are rendered in parallel, one frame per thread, all reading
+ * the volume, gradients and settings of one {@link RaycastEngine}. Every
+ * frame is written as soon as it is finished.
+ */
+public class BatchRenderer {
+
+    /**
+     * Creates a batch renderer using one thread per processor.
+     *
+     * @param engine Engine rendering the frames. Its settings must not change
+     *               while a batch is rendered.
+     */
+    public BatchRenderer(RaycastEngine engine) {
+        this(engine, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a batch renderer.
+     *
+     * @param engine  Engine rendering the frames. Its settings must not change
+     *                while a batch is rendered.
+     * @param threads Number of frames rendered at the same time, at least 1.
+     */
+    public BatchRenderer(RaycastEngine engine, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one render thread is needed");
+        }
+        this.engine = engine;
+        this.threads = threads;
+    }
+
+    /**
+     * Creates a turntable: a full rotation around the vertical axis of the
+     * view, after tilting the volume towards the viewer.
+     *
+     * @param frames Number of frames.
+     * @param tilt   Rotation around the horizontal axis of the view, in degrees.
+     * @return View matrices in the form of
+     * {@link util.TrackballInteractor#getTransformationMatrix()}.
+     */
+    public static List<double[]> turntable(int frames, double tilt) {
+        List<double[]> path = new ArrayList<>(frames);
+        double[] tiltMatrix = VectorMath.rotationMatrix(tilt, 1, 0, 0);
+        for (int i = 0; i < frames; i++) {
+            double[] spin = VectorMath.rotationMatrix(360.0 * i / frames, 0, 1, 0);
+            path.add(VectorMath.multiplyMatrix(tiltMatrix, spin));
+        }
+        return path;
+    }
+
+    /**
+     * Reads a camera path from a text file with one view matrix per line: 16
+     * numbers in column major order, separated by commas or white space.
+     * Empty lines and lines starting with # are skipped.
+     *
+     * @param file File to read.
+     * @return The view matrices.
+     * @throws IOException If the file cannot be read or a line is not a matrix.
+     */
+    public static List<double[]> readCameraPath(File file) throws IOException {
+        List<double[]> path = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] numbers = line.split("[,\\s]+");
+                if (numbers.length != 16) {
+                    throw new IOException(file + ":" + lineNumber + ": expected 16 numbers");
+                }
+                double[] matrix = new double[16];
+                try {
+                    for (int i = 0; i < 16; i++) {
+                        matrix[i] = Double.parseDouble(numbers[i]);
+                    }
+                } catch (NumberFormatException ex) {
+                    throw new IOException(file + ":" + lineNumber + ": " + ex.getMessage());
+                }
+                path.add(matrix);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Gets the file a frame is written to: the frame number is appended to
+     * the name of output, padded to the same width for all frames.
+     *
+     * @param output Output file, e.g. dir/turntable.png.
+     * @param frame  Frame number.
+     * @param frames Number of frames in the path.
+     * @return The file, e.g. dir/turntable_007.png.
+     */
+    public static File getFrameFile(File output, int frame, int frames) {
+        String name = output.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        int digits = Math.max(1, Integer.toString(frames - 1).length());
+        return new File(output.getParentFile(), String.format("%s_%0" + digits + "d.png", base, frame));
+    }
+
+    /**
+     * Renders every view of a camera path and writes it to a numbered PNG
+     * file. Blocks until all frames are written.
+     *
+     * @param path   View matrices of the frames.
+     * @param output Output file the frame files are named after, see
+     *               {@link #getFrameFile(File, int, int)}.
+     * @throws IOException          If a frame cannot be written.
+     * @throws InterruptedException If interrupted while waiting for the frames.
+     */
+    public void render(List<double[]> path, File output) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, path.size())));
+        try {
+            CompletionService<File> frames = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < path.size(); i++) {
+                double[] viewMatrix = path.get(i);
+                File file = getFrameFile(output, i, path.size());
+                frames.submit(() -> {
+                    if (!ImageIO.write(engine.renderImageOnCallingThread(viewMatrix), "png", file)) {
+                        throw new IOException("No PNG writer available");
+                    }
+                    return file;
+                });
+            }
+            for (int done = 1; done <= path.size(); done++) {
+                try {
+                    File file = frames.take().get();
+                    System.out.println("Wrote " + file + " (" + done + "/" + path.size() + ")");
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Rendering a frame failed", cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private final RaycastEngine engine;
+    private final int threads;
+}
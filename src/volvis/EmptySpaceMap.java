@@ -0,0 +1,224 @@
+package volvis;
+
+import java.util.function.IntPredicate;
+import volume.MinMaxOctree;
+
+/**
+ * Classification of the nodes of a {@link MinMaxOctree} for one rendering
+ * mode. A node is empty when no sample inside it can contribute to the image,
+ * e.g. because every value in its min/max range is transparent under the
+ * current transfer function. The classification is cheap compared to the
+ * octree itself and is redone whenever the mode parameters may have changed.
+ * <p>
+ * Optionally the leaf bricks are also classified as smooth, when the samples
+ * inside them vary so little that the ray caster may take longer steps. A
+ * larger node is smooth when all its leaf bricks are.
+ */
+class EmptySpaceMap {
+
+    /**
+     * Decides whether a value range can be skipped by the ray caster.
+     */
+    interface RangeClassifier {
+
+        boolean isEmpty(short min, short max);
+    }
+
+    EmptySpaceMap(MinMaxOctree octree, RangeClassifier classifier) {
+        this(octree, classifier, null);
+    }
+
+    /**
+     * @param octree           Min/max octree of the volume.
+     * @param classifier       Decides which value ranges are empty.
+     * @param smoothClassifier Decides which leaf bricks, by node index, are
+     *                         smooth, or null to classify no brick as smooth.
+     */
+    EmptySpaceMap(MinMaxOctree octree, RangeClassifier classifier, IntPredicate smoothClassifier) {
+        this.octree = octree;
+        if (smoothClassifier != null) {
+            smooth = new boolean[octree.getLevelCount()][];
+            smooth[0] = new boolean[octree.getNodeCount(0)];
+            for (int node = 0; node < smooth[0].length; node++) {
+                smooth[0][node] = smoothClassifier.test(node);
+            }
+            for (int level = 1; level < smooth.length; level++) {
+                smooth[level] = classifyParents(level, smooth[level - 1]);
+            }
+        } else {
+            smooth = null;
+        }
+        empty = new boolean[octree.getLevelCount()][];
+        for (int level = 0; level < empty.length; level++) {
+            empty[level] = new boolean[octree.getNodeCount(level)];
+            for (int node = 0; node < empty[level].length; node++) {
+                empty[level][node] = classifier.isEmpty(octree.getMin(level, node), octree.getMax(level, node));
+            }
+        }
+        limitX = octree.getDimX() - 2;
+        limitY = octree.getDimY() - 2;
+        limitZ = octree.getDimZ() - 2;
+    }
+
+    /**
+     * Finds the largest node containing a sample position and counts the
+     * samples along the ray that fall inside it.
+     *
+     * @param pos        Position of the current sample.
+     * @param increments Step between two samples.
+     * @param nrSamples  Number of samples left on the ray.
+     * @return The number of samples, starting at pos, that lie in an empty node
+     * and can be skipped. If the leaf brick containing pos is not empty, minus
+     * the number of samples that lie in that brick. Zero if pos lies outside
+     * the volume.
+     */
+    int span(double[] pos, double[] increments, int nrSamples) {
+        double x = pos[0], y = pos[1], z = pos[2];
+        if (x < 0 || x > limitX || y < 0 || y > limitY || z < 0 || z > limitZ) {
+            return 0;
+        }
+
+        for (int level = empty.length - 1; level >= 0; level--) {
+            int node = nodeAt(level, x, y, z);
+            if (empty[level][node] || level == 0) {
+                int samples = samplesInNode(level, x, y, z, increments, nrSamples);
+                return empty[level][node] ? samples : -samples;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the node of a level that contains a sample position.
+     *
+     * @param level Octree level.
+     * @param pos   Position of the sample.
+     * @return The node, or -1 if pos lies outside the volume.
+     */
+    int getNode(int level, double[] pos) {
+        double x = pos[0], y = pos[1], z = pos[2];
+        if (x < 0 || x > limitX || y < 0 || y > limitY || z < 0 || z > limitZ) {
+            return -1;
+        }
+        return nodeAt(level, x, y, z);
+    }
+
+    /**
+     * Counts the samples, starting at pos, that stay inside the node of a
+     * level containing it, see {@link #getNode(int, double[])}.
+     *
+     * @param level      Octree level.
+     * @param pos        Position of the current sample, inside the volume.
+     * @param increments Step between two samples.
+     * @param nrSamples  Number of samples left on the ray.
+     * @return The number of samples, at least 1 and at most nrSamples.
+     */
+    int getNodeSamples(int level, double[] pos, double[] increments, int nrSamples) {
+        return samplesInNode(level, pos[0], pos[1], pos[2], increments, nrSamples);
+    }
+
+    /**
+     * Finds the largest smooth node containing a sample position and counts
+     * the samples along the ray that fall inside it.
+     *
+     * @param pos        Position of the current sample.
+     * @param increments Step between two samples.
+     * @param nrSamples  Number of samples left on the ray.
+     * @return The number of samples, starting at pos, that lie in a smooth
+     * node. Zero if the leaf brick containing pos is not smooth or pos lies
+     * outside the volume.
+     */
+    int smoothSpan(double[] pos, double[] increments, int nrSamples) {
+        double x = pos[0], y = pos[1], z = pos[2];
+        if (smooth == null || x < 0 || x > limitX || y < 0 || y > limitY || z < 0 || z > limitZ) {
+            return 0;
+        }
+
+        for (int level = smooth.length - 1; level >= 0; level--) {
+            if (smooth[level][nodeAt(level, x, y, z)]) {
+                return samplesInNode(level, x, y, z, increments, nrSamples);
+            }
+        }
+        return 0;
+    }
+
+    private int nodeAt(int level, double x, double y, double z) {
+        int shift = BRICK_SHIFT + level;
+        int nx = Math.min((int) x >> shift, octree.getNodeCountX(level) - 1);
+        int ny = Math.min((int) y >> shift, octree.getNodeCountY(level) - 1);
+        int nz = Math.min((int) z >> shift, octree.getNodeCountZ(level) - 1);
+        return nx + octree.getNodeCountX(level) * (ny + octree.getNodeCountY(level) * nz);
+    }
+
+    /**
+     * Counts the samples, starting at (x, y, z), that stay inside the node of
+     * a level containing it.
+     */
+    private int samplesInNode(int level, double x, double y, double z, double[] increments, int nrSamples) {
+        int size = octree.getNodeSize(level);
+        int nx = Math.min((int) x / size, octree.getNodeCountX(level) - 1);
+        int ny = Math.min((int) y / size, octree.getNodeCountY(level) - 1);
+        int nz = Math.min((int) z / size, octree.getNodeCountZ(level) - 1);
+        int samples = nrSamples;
+        samples = Math.min(samples, samplesInside(x, increments[0], nx * size, Math.min((nx + 1) * size, limitX)));
+        samples = Math.min(samples, samplesInside(y, increments[1], ny * size, Math.min((ny + 1) * size, limitY)));
+        samples = Math.min(samples, samplesInside(z, increments[2], nz * size, Math.min((nz + 1) * size, limitZ)));
+        return samples;
+    }
+
+    /**
+     * Classifies the nodes of a level as the conjunction of their 2x2x2
+     * children, laid out as in {@link MinMaxOctree}.
+     */
+    private boolean[] classifyParents(int level, boolean[] children) {
+        int cx = octree.getNodeCountX(level - 1), cy = octree.getNodeCountY(level - 1);
+        int cz = octree.getNodeCountZ(level - 1);
+        int countX = octree.getNodeCountX(level), countY = octree.getNodeCountY(level);
+        int countZ = octree.getNodeCountZ(level);
+        boolean[] parents = new boolean[countX * countY * countZ];
+        int node = 0;
+        for (int nz = 0; nz < countZ; nz++) {
+            for (int ny = 0; ny < countY; ny++) {
+                for (int nx = 0; nx < countX; nx++) {
+                    boolean all = true;
+                    for (int z = 2 * nz; z < Math.min(2 * nz + 2, cz); z++) {
+                        for (int y = 2 * ny; y < Math.min(2 * ny + 2, cy); y++) {
+                            for (int x = 2 * nx; x < Math.min(2 * nx + 2, cx); x++) {
+                                all &= children[x + cx * (y + cy * z)];
+                            }
+                        }
+                    }
+                    parents[node++] = all;
+                }
+            }
+        }
+        return parents;
+    }
+
+    /**
+     * Counts the samples, starting at p, that stay inside [lo, hi] along one
+     * axis. The current sample is always inside.
+     */
+    private static int samplesInside(double p, double increment, double lo, double hi) {
+        double steps;
+        if (increment > 0) {
+            steps = (hi - p) / increment;
+        } else if (increment < 0) {
+            steps = (p - lo) / -increment;
+        } else {
+            return Integer.MAX_VALUE;
+        }
+        return steps >= Integer.MAX_VALUE - 1 ? Integer.MAX_VALUE : 1 + (int) steps;
+    }
+
+    /**
+     * Log2 of {@link MinMaxOctree#BRICK_SIZE}, the size of a node of level
+     * l being 1 << (BRICK_SHIFT + l).
+     */
+    private static final int BRICK_SHIFT = Integer.numberOfTrailingZeros(MinMaxOctree.BRICK_SIZE);
+
+    private final MinMaxOctree octree;
+    private final boolean[][] empty;
+    private final boolean[][] smooth;
+    private final int limitX, limitY, limitZ;
+}
@@ -0,0 +1,78 @@
+package volvis;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Image the renderers write their pixels into. The pixels are packed ARGB
+ * ints written straight into the backing array of a TYPE_INT_ARGB
+ * {@link BufferedImage}, skipping the color model conversion and the checks
+ * of {@link BufferedImage#setRGB(int, int, int)}.
+ * <p>
+ * Threads may write to disjoint regions, e.g. image tiles, concurrently.
+ */
+class FrameBuffer {
+
+    FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Gets the pixels, row by row from the top, as packed ARGB ints.
+     */
+    int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Gets the image backed by the pixels.
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Sets every pixel to transparent black.
+     */
+    void clear() {
+        Arrays.fill(pixels, 0);
+    }
+
+    void setPixel(int x, int y, int argb) {
+        pixels[x + width * y] = argb;
+    }
+
+    /**
+     * Fills a block of pixels, clipped to the image.
+     *
+     * @param x    Left column of the block.
+     * @param y    Top row of the block.
+     * @param w    Width of the block.
+     * @param h    Height of the block.
+     * @param argb Packed color.
+     */
+    void fillBlock(int x, int y, int w, int h, int argb) {
+        int x1 = Math.min(x + w, width);
+        int y1 = Math.min(y + h, height);
+        for (int row = y; row < y1; row++) {
+            int offset = width * row;
+            Arrays.fill(pixels, offset + x, offset + x1, argb);
+        }
+    }
+
+    private final int width, height;
+    private final BufferedImage image;
+    private final int[] pixels;
+}
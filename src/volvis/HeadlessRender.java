@@ -0,0 +1,234 @@
+package volvis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+import util.VectorMath;
+import volume.Volume;
+import volume.VoxelLayout;
+
+/**
+ * Command line entry point rendering a volume to a PNG file with the
+ * {@link RaycastEngine}, without a display or a GL context. With a camera
+ * path, e.g. a turntable, it renders every view to a numbered PNG file with
+ * the {@link BatchRenderer}.
+ * <p>
+ * Usage: HeadlessRender [options] file.fld out.png
+ */
+public class HeadlessRender {
+
+    private static final String USAGE = "Usage: HeadlessRender [options] file.fld out.png\n"
+            + "  -mode MODE           SLICER, MIP, COMPOSITING, ISO_SURFACE or TRANSFER2D (default MIP)\n"
+            + "  -rotate RX,RY        rotate the volume RX degrees around x, then RY degrees around y\n"
+            + "  -matrix M0,...,M15   column major view matrix, as used by the GL view\n"
+            + "  -tf V:R:G:B:A,...    control points of the transfer function, replacing the default\n"
+            + "  -iso VALUE           iso value of the isosurface\n"
+            + "  -shading             enable Phong shading\n"
+            + "  -slice-tf            color slices with the transfer function instead of grey values\n"
+            + "  -slice-offset D      slice the plane D voxels from the center along the view vector\n"
+            + "  -mip-accelerate      skip the bricks that cannot raise the maximum of a MIP ray\n"
+            + "  -mip-trilinear       interpolate MIP samples instead of taking the nearest voxel\n"
+            + "  -preintegration      composite pre-integrated segments instead of single samples\n"
+            + "  -adaptive TOLERANCE  take longer steps where the transfer function varies at most TOLERANCE\n"
+            + "  -turntable N[,TILT]  render N views rotating around y, tilted TILT degrees around x\n"
+            + "  -path FILE           render the view matrices in FILE, one per line\n"
+            + "  -threads N           number of render threads\n"
+            + "A turntable or path writes out_0.png, out_1.png, ... next to out.png.";
+
+    public static void main(String[] args) {
+        try {
+            System.exit(run(args));
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (InterruptedException ex) {
+            System.exit(1);
+        }
+    }
+
+    private static int run(String[] args) throws InterruptedException {
+        RaycastMode mode = RaycastMode.MIP;
+        double[] viewMatrix = VectorMath.rotationMatrix(0, 0, 0, 1);
+        String tf = null;
+        Float isoValue = null;
+        boolean shading = false;
+        boolean sliceTransferFunction = false;
+        double sliceOffset = 0;
+        boolean preIntegration = false;
+        boolean mipAcceleration = false;
+        boolean mipTrilinear = false;
+        Double adaptiveTolerance = null;
+        int threads = 0;
+        List<double[]> path = null;
+        File pathFile = null;
+
+        int arg = 0;
+        for (; arg < args.length && args[arg].startsWith("-"); arg++) {
+            String option = args[arg];
+            if (option.equals("-shading")) {
+                shading = true;
+                continue;
+            }
+            if (option.equals("-slice-tf")) {
+                sliceTransferFunction = true;
+                continue;
+            }
+            if (option.equals("-preintegration")) {
+                preIntegration = true;
+                continue;
+            }
+            if (option.equals("-mip-accelerate")) {
+                mipAcceleration = true;
+                continue;
+            }
+            if (option.equals("-mip-trilinear")) {
+                mipTrilinear = true;
+                continue;
+            }
+            if (arg + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value of " + option);
+            }
+            String value = args[++arg];
+            switch (option) {
+                case "-mode":
+                    mode = RaycastMode.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "-rotate":
+                    double[] angles = parseNumbers(value, 2);
+                    viewMatrix = VectorMath.multiplyMatrix(VectorMath.rotationMatrix(angles[1], 0, 1, 0),
+                            VectorMath.rotationMatrix(angles[0], 1, 0, 0));
+                    break;
+                case "-matrix":
+                    viewMatrix = parseNumbers(value, 16);
+                    break;
+                case "-tf":
+                    tf = value;
+                    break;
+                case "-adaptive":
+                    adaptiveTolerance = Double.parseDouble(value);
+                    break;
+                case "-slice-offset":
+                    sliceOffset = Double.parseDouble(value);
+                    break;
+                case "-iso":
+                    isoValue = Float.parseFloat(value);
+                    break;
+                case "-turntable":
+                    String[] turntable = value.split(",");
+                    if (turntable.length > 2) {
+                        throw new IllegalArgumentException("Expected N[,TILT] in " + value);
+                    }
+                    path = BatchRenderer.turntable(Integer.parseInt(turntable[0].trim()),
+                            turntable.length > 1 ? Double.parseDouble(turntable[1].trim()) : 0);
+                    break;
+                case "-path":
+                    pathFile = new File(value);
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        if (args.length - arg != 2) {
+            throw new IllegalArgumentException("Expected a volume and an output file");
+        }
+        File input = new File(args[arg]);
+        File output = new File(args[arg + 1]);
+
+        Volume volume;
+        try {
+            volume = Volume.load(input, VoxelLayout.LINEAR);
+        } catch (IOException ex) {
+            System.err.println("Could not read " + input + ": " + ex.getMessage());
+            return 1;
+        }
+        RaycastEngine engine = new RaycastEngine(volume);
+        engine.setRaycastModeFront(mode);
+        engine.setShadingMode(shading);
+        engine.setSlicerTransferFunction(sliceTransferFunction);
+        engine.setSliceOffset(sliceOffset);
+        engine.setPreIntegration(preIntegration);
+        engine.setMipAcceleration(mipAcceleration);
+        engine.setMipTrilinear(mipTrilinear);
+        if (adaptiveTolerance != null) {
+            engine.setAdaptiveTolerance(adaptiveTolerance);
+            engine.setAdaptiveSampling(true);
+        }
+        if (tf != null) {
+            engine.setTransferFunctionFront(parseTransferFunction(tf, volume));
+        }
+        if (isoValue != null) {
+            engine.setIsoValueFront(isoValue);
+        }
+
+        long startTime = System.currentTimeMillis();
+        if (path != null || pathFile != null) {
+            try {
+                if (pathFile != null) {
+                    path = BatchRenderer.readCameraPath(pathFile);
+                }
+                BatchRenderer batch = threads > 0 ? new BatchRenderer(engine, threads) : new BatchRenderer(engine);
+                batch.render(path, output);
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+                return 1;
+            }
+            System.out.println("Rendered " + path.size() + " views in " + (System.currentTimeMillis() - startTime)
+                    + " ms");
+            return 0;
+        }
+
+        if (threads > 0) {
+            engine.setRenderThreadCount(threads);
+        }
+        startTime = System.currentTimeMillis();
+        try {
+            ImageIO.write(engine.renderImage(viewMatrix), "png", output);
+        } catch (IOException ex) {
+            System.err.println("Could not write " + output + ": " + ex.getMessage());
+            return 1;
+        }
+        System.out.println("Rendered " + output + " in " + (System.currentTimeMillis() - startTime) + " ms");
+        return 0;
+    }
+
+    /**
+     * Parses a transfer function given as comma separated control points
+     * value:r:g:b:a.
+     */
+    static TransferFunction parseTransferFunction(String spec, Volume volume) {
+        TransferFunction tFunc = new TransferFunction(volume.getMinimum(), volume.getMaximum());
+        for (String point : spec.split(",")) {
+            String[] parts = point.split(":");
+            if (parts.length != 5) {
+                throw new IllegalArgumentException("Control point " + point + " is not value:r:g:b:a");
+            }
+            int value = Integer.parseInt(parts[0].trim());
+            if (tFunc.addControlPoint(value, Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                    Double.parseDouble(parts[3]), Double.parseDouble(parts[4])) < 0) {
+                throw new IllegalArgumentException("Control point " + point + " lies outside the volume range");
+            }
+        }
+        return tFunc;
+    }
+
+    /**
+     * Parses a fixed number of comma separated numbers.
+     */
+    static double[] parseNumbers(String spec, int count) {
+        String[] parts = spec.split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " numbers in " + spec);
+        }
+        double[] numbers = new double[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = Double.parseDouble(parts[i].trim());
+        }
+        return numbers;
+    }
+}
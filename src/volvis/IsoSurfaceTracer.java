@@ -0,0 +1,341 @@
+package volvis;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import volume.Volume;
+
+/**
+ * Finds where rays first reach an iso value of the tri-linearly interpolated
+ * volume. Rays jump over the bricks of the min/max octree that cannot
+ * contain the iso value, march the remaining bricks sample by sample, and
+ * refine the first crossing with the secant method on the cubic the
+ * interpolation follows between two samples.
+ * <p>
+ * The first sample of every ray that reached the iso value is kept per
+ * pixel. While the view stays the same, a higher iso value cannot be reached
+ * any earlier, so raising the iso value resumes every ray at its previous
+ * hit instead of marching it again from the start. Together with the side of
+ * the cutting plane and the normal of every hit, these form a
+ * {@link GBuffer}, from which a frame with unchanged iso values can be
+ * shaded without casting any rays. A G-buffer holds one entry per ray, not
+ * per pixel, and at most {@link #MAX_BUFFERS} of them are kept.
+ */
+class IsoSurfaceTracer {
+
+    /**
+     * Largest number of secant steps refining a hit.
+     */
+    static final int REFINE_ITERATIONS = 8;
+
+    /**
+     * Distance, in voxel units, within which a hit is considered found.
+     */
+    static final double REFINE_TOLERANCE = 0.01;
+
+    /**
+     * Packed hit of a pixel without a known hit: no iso value is above
+     * infinity, so the ray is marched from the start.
+     */
+    private static final long UNKNOWN = pack(Float.POSITIVE_INFINITY, 0);
+
+    /**
+     * Largest number of G-buffers kept, one for every progressive pass of
+     * the renderer.
+     */
+    private static final int MAX_BUFFERS = 4;
+
+    IsoSurfaceTracer(Volume volume) {
+        this.volume = volume;
+    }
+
+    /**
+     * Acquires the G-buffer of a view for a frame, which must
+     * {@link #release(GBuffer)} it when it is done. It is kept between frames
+     * with the same view, image size, pixel increment, sample step and
+     * cutting plane, and cleared otherwise, unless another frame still uses
+     * it; that frame keeps the buffer, and this one gets a new one.
+     *
+     * @param width  Number of rays per row, the image width divided by the
+     *               pixel increment and rounded up.
+     * @param height Number of rows of rays.
+     * @return The G-buffer, one entry per ray, row by row.
+     */
+    synchronized GBuffer acquire(double[] viewMatrix, int width, int height, int increment, int sampleStep,
+                                 boolean cuttingPlaneMode, double[] planePoint, double[] planeNorm) {
+        double[] view = new double[viewMatrix.length + 7];
+        System.arraycopy(viewMatrix, 0, view, 0, viewMatrix.length);
+        int i = viewMatrix.length;
+        view[i++] = cuttingPlaneMode ? 1 : 0;
+        for (int c = 0; c < 3; c++) {
+            view[i++] = cuttingPlaneMode ? planePoint[c] : 0;
+            view[i++] = cuttingPlaneMode ? planeNorm[c] : 0;
+        }
+
+        // interactive and full resolution frames alternate, so each keeps its own buffer
+        long key = ((long) sampleStep << 32) | increment;
+        GBuffer buffer = buffers.get(key);
+        if (buffer == null || buffer.width != width || buffer.height != height) {
+            buffer = new GBuffer(view, width, height);
+            buffers.put(key, buffer);
+        } else if (!Arrays.equals(buffer.view, view)) {
+            if (buffer.users > 0) {
+                buffer = new GBuffer(view, width, height);
+                buffers.put(key, buffer);
+            } else {
+                buffer.clear(view);
+            }
+        }
+        buffer.users++;
+        if (buffers.size() > MAX_BUFFERS) {
+            Iterator<GBuffer> eldest = buffers.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+        return buffer;
+    }
+
+    /**
+     * Releases a G-buffer acquired by a frame.
+     */
+    synchronized void release(GBuffer buffer) {
+        buffer.users--;
+    }
+
+    /**
+     * Drops every G-buffer, e.g. when no mode renders an isosurface anymore.
+     * Frames still using one keep it until they release it.
+     */
+    synchronized void clear() {
+        buffers.clear();
+    }
+
+    /**
+     * Finds the first point along a ray where the volume reaches isoValue.
+     *
+     * @param currentPos First sample of the ray.
+     * @param increments Step between two samples.
+     * @param nrSamples  Number of samples of the ray.
+     * @param isoValue   Iso value.
+     * @param emptySpace Bricks whose maximum lies below isoValue, or null.
+     * @param hits       {@link GBuffer#hits} of the view, or null.
+     * @param pixel      Index of the ray in hits.
+     * @param pos        Scratch position.
+     * @return The depth of the hit in samples from currentPos, or -1 if the
+     * ray does not reach isoValue.
+     */
+    double findHit(double[] currentPos, double[] increments, int nrSamples, float isoValue, EmptySpaceMap emptySpace,
+                   long[] hits, int pixel, double[] pos) {
+        int sample = 0;
+        if (hits != null) {
+            long hit = hits[pixel];
+            if (isoValue >= isoValue(hit)) {
+                // the samples before the previous hit lie below the previous, lower iso value
+                sample = Math.min(hitSample(hit), nrSamples);
+            }
+        }
+        for (int i = 0; i < 3; i++) {
+            pos[i] = currentPos[i] + sample * increments[i];
+        }
+
+        double depth = -1;
+        double value = 0;
+        while (sample < nrSamples) {
+            int span = emptySpace == null ? 0 : emptySpace.span(pos, increments, nrSamples - sample);
+            if (span > 0) {
+                // the brick lies below the iso value
+                sample += span;
+                advance(pos, increments, span);
+                continue;
+            }
+            int end = Math.min(nrSamples, sample + (span < 0 ? -span : 1));
+            for (; sample < end; sample++) {
+                value = volume.getVoxelTrilinear(pos);
+                if (value >= isoValue) {
+                    break;
+                }
+                advance(pos, increments, 1);
+            }
+            if (sample < end) {
+                depth = sample == 0 ? 0 : refine(currentPos, increments, sample, value, isoValue, pos);
+                break;
+            }
+        }
+
+        if (hits != null) {
+            hits[pixel] = pack(isoValue, sample);
+        }
+        return depth;
+    }
+
+    /**
+     * Refines the crossing of the iso value between the sample before hit,
+     * which lies below isoValue, and sample hit, which does not, with the
+     * Illinois variant of regula falsi. The interval keeps bracketing the
+     * crossing, so the first crossing found by marching is the one refined.
+     *
+     * @param hitValue Value at sample hit.
+     * @param pos      Scratch position.
+     * @return Depth of the crossing in samples from currentPos.
+     */
+    private double refine(double[] currentPos, double[] increments, int hit, double hitValue, float isoValue,
+                          double[] pos) {
+        double low = hit - 1, high = hit;
+        double lowValue = sample(currentPos, increments, low, pos) - isoValue;
+        double highValue = hitValue - isoValue;
+        double tolerance = REFINE_TOLERANCE / Math.sqrt(increments[0] * increments[0]
+                + increments[1] * increments[1] + increments[2] * increments[2]);
+        // the side that was kept last, to halve its value when it is kept again
+        int kept = 0;
+        for (int i = 0; i < REFINE_ITERATIONS && high - low > tolerance; i++) {
+            double depth = high - highValue * (high - low) / (highValue - lowValue);
+            double value = sample(currentPos, increments, depth, pos) - isoValue;
+            if (value >= 0) {
+                high = depth;
+                highValue = value;
+                if (kept < 0) {
+                    lowValue /= 2;
+                }
+                kept = -1;
+            } else {
+                low = depth;
+                lowValue = value;
+                if (kept > 0) {
+                    highValue /= 2;
+                }
+                kept = 1;
+            }
+            if (value == 0) {
+                break;
+            }
+        }
+        return high;
+    }
+
+    private double sample(double[] currentPos, double[] increments, double depth, double[] pos) {
+        for (int i = 0; i < 3; i++) {
+            pos[i] = currentPos[i] + depth * increments[i];
+        }
+        return volume.getVoxelTrilinear(pos);
+    }
+
+    private static void advance(double[] pos, double[] increments, int samples) {
+        for (int i = 0; i < 3; i++) {
+            pos[i] += samples * increments[i];
+        }
+    }
+
+    /**
+     * Packs the iso value a ray was marched for and its first sample at or
+     * above that value, the number of samples of the ray if there is none.
+     */
+    private static long pack(float isoValue, int sample) {
+        return ((long) Float.floatToRawIntBits(isoValue) << 32) | (sample & 0xffffffffL);
+    }
+
+    private static float isoValue(long hit) {
+        return Float.intBitsToFloat((int) (hit >>> 32));
+    }
+
+    private static int hitSample(long hit) {
+        return (int) hit;
+    }
+
+    /**
+     * Per ray state of one view. The entries of a ray are only written by
+     * the thread casting it.
+     */
+    static final class GBuffer {
+
+        /**
+         * Surface of a pixel whose ray misses the volume or the isosurface.
+         */
+        static final byte NONE = 0;
+        /**
+         * Surface of a pixel whose ray hits the isosurface of the front or
+         * back (cutting plane) settings.
+         */
+        static final byte FRONT = 1, BACK = 2;
+
+        private double[] view;
+        final int width, height;
+        /**
+         * The iso value every ray was last marched for, packed with the first
+         * sample at or above it.
+         */
+        final long[] hits;
+        /**
+         * The surface every ray hit, {@link #NONE}, {@link #FRONT} or
+         * {@link #BACK}.
+         */
+        final byte[] surfaces;
+        /**
+         * The gradient at every hit: x, y, z and magnitude.
+         */
+        final float[] normals;
+        /**
+         * Whether surfaces and normals hold a whole frame, and the iso values
+         * and whether normals were stored in that frame.
+         */
+        private boolean complete;
+        private float isoValueFront, isoValueBack;
+        private boolean normalsStored;
+        /**
+         * Number of frames using the buffer, guarded by the tracer.
+         */
+        private int users;
+
+        GBuffer(double[] view, int width, int height) {
+            this.view = view;
+            this.width = width;
+            this.height = height;
+            hits = new long[width * height];
+            Arrays.fill(hits, UNKNOWN);
+            surfaces = new byte[width * height];
+            normals = new float[4 * width * height];
+        }
+
+        /**
+         * Reuses the buffer for another view. Surfaces and normals are
+         * overwritten by the next frame before it is complete.
+         */
+        private synchronized void clear(double[] view) {
+            this.view = view;
+            Arrays.fill(hits, UNKNOWN);
+            complete = false;
+        }
+
+        /**
+         * Whether the buffer holds a whole frame for these iso values, with
+         * normals if needed.
+         */
+        synchronized boolean isComplete(float isoValueFront, float isoValueBack, boolean needsNormals) {
+            return complete && isoValueFront == this.isoValueFront && isoValueBack == this.isoValueBack
+                    && (normalsStored || !needsNormals);
+        }
+
+        /**
+         * Marks the buffer as being overwritten by a frame.
+         */
+        synchronized void invalidate() {
+            complete = false;
+        }
+
+        /**
+         * Marks the buffer as holding a whole frame.
+         */
+        synchronized void setComplete(float isoValueFront, float isoValueBack, boolean normalsStored) {
+            complete = true;
+            this.isoValueFront = isoValueFront;
+            this.isoValueBack = isoValueBack;
+            this.normalsStored = normalsStored;
+        }
+    }
+
+    private final Volume volume;
+    /**
+     * The G-buffers, least recently acquired first.
+     */
+    private final Map<Long, GBuffer> buffers = new LinkedHashMap<>(16, 0.75f, true);
+}
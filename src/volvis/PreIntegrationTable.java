@@ -0,0 +1,174 @@
+package volvis;
+
+/**
+ * Pre-integrated classification of a {@link TransferFunction}. For a ray
+ * segment between two samples it gives the color and opacity of the transfer
+ * function integrated over all scalar values between the front and the back
+ * sample, assuming the scalar varies linearly along the segment. Narrow
+ * features of the transfer function that lie between two samples therefore
+ * still show up, so compositing can use larger sample steps without slab
+ * artifacts.
+ * <p>
+ * The table has an entry for every scalar value of the transfer function. It
+ * holds the extinction and extinction weighted color of the value, and their
+ * integrals over all lower values. A segment is classified from the
+ * difference of the integrals at its front and back value, so the table
+ * keeps the full resolution of the transfer function, takes memory linear in
+ * its range and serves every sample step. A segment whose front and back
+ * value are equal gets the opacity of the transfer function entry, as a
+ * single sample would. When the transfer function changes, only the entries
+ * from the lowest changed value up are recomputed.
+ */
+class PreIntegrationTable {
+
+    /**
+     * Number of doubles of a table entry: the extinction, the extinction
+     * weighted red, green and blue, and their integrals up to the value of
+     * the entry.
+     */
+    private static final int ENTRY = 8;
+
+    /**
+     * Highest opacity of a transfer function entry. Opacity 1 would mean an
+     * infinite extinction coefficient.
+     */
+    private static final double MAX_OPACITY = 0.9999;
+
+    /**
+     * Segments that span fewer scalar values than this are classified by the
+     * entry at their middle, where the difference of the integrals would lose
+     * precision.
+     */
+    private static final double MIN_WIDTH = 1e-3;
+
+    PreIntegrationTable(TransferFunction tFunc) {
+        this.tFunc = tFunc;
+        min = tFunc.getMinimum();
+        range = tFunc.getMaximum() - min;
+    }
+
+    TransferFunction getTransferFunction() {
+        return tFunc;
+    }
+
+    /**
+     * Gets the position of a scalar value in the table.
+     */
+    double position(double value) {
+        double position = value - min;
+        return position < 0 ? 0 : (position > range ? range : position);
+    }
+
+    /**
+     * Gets the table, updated to the current state of the transfer function.
+     * A change of the transfer function creates a new table, so the one
+     * returned stays consistent while a frame is rendered.
+     *
+     * @return The table, to be passed to {@link #classify}.
+     */
+    synchronized double[] getTable() {
+        if (table != null && version == tFunc.getVersion()) {
+            return table;
+        }
+        version = tFunc.getVersion();
+        double[] newTable = new double[ENTRY * (range + 1)];
+        TFColor color = new TFColor();
+        int low = table == null ? 0 : range + 1;
+        for (int entry = 0; entry <= range; entry++) {
+            tFunc.getColor(min + entry, color);
+            int offset = ENTRY * entry;
+            double tau = -Math.log(1 - Math.min(color.a, MAX_OPACITY));
+            newTable[offset] = tau;
+            newTable[offset + 1] = tau * color.r;
+            newTable[offset + 2] = tau * color.g;
+            newTable[offset + 3] = tau * color.b;
+            if (low > entry) {
+                for (int c = 0; c < 4; c++) {
+                    if (newTable[offset + c] != table[offset + c]) {
+                        low = entry;
+                        break;
+                    }
+                }
+            }
+        }
+        if (low > range) {
+            return table;
+        }
+
+        // the entries below the lowest changed value stay the same
+        if (low > 0) {
+            System.arraycopy(table, 0, newTable, 0, ENTRY * low);
+        }
+        for (int entry = Math.max(low, 1); entry <= range; entry++) {
+            int offset = ENTRY * entry;
+            for (int c = 0; c < 4; c++) {
+                newTable[offset + 4 + c] = newTable[offset - ENTRY + 4 + c] + newTable[offset - ENTRY + c];
+            }
+        }
+        table = newTable;
+        return table;
+    }
+
+    /**
+     * Classifies a segment. The extinction is taken constant over every
+     * scalar value, from the value up to the next one, as the single sample
+     * classification does; the color is the extinction weighted average over
+     * the segment, which neglects the attenuation within it.
+     *
+     * @param table  Table returned by {@link #getTable()}.
+     * @param front  Position of the front sample, see {@link #position(double)}.
+     * @param back   Position of the back sample.
+     * @param length Length of the segment in voxel units.
+     * @param result Premultiplied red, green and blue, and the opacity of the segment.
+     */
+    void classify(double[] table, double front, double back, double length, TFColor result) {
+        double tau, red, green, blue;
+        double width = back - front;
+        if (Math.abs(width) < MIN_WIDTH) {
+            int offset = ENTRY * entry((front + back) / 2);
+            tau = table[offset];
+            red = table[offset + 1];
+            green = table[offset + 2];
+            blue = table[offset + 3];
+        } else {
+            tau = (integral(table, back, 0) - integral(table, front, 0)) / width;
+            red = (integral(table, back, 1) - integral(table, front, 1)) / width;
+            green = (integral(table, back, 2) - integral(table, front, 2)) / width;
+            blue = (integral(table, back, 3) - integral(table, front, 3)) / width;
+        }
+        double alpha = 1 - Math.exp(-tau * length);
+        // the average color over the segment, weighted by extinction, premultiplied by its opacity
+        double weight = tau > 0 ? alpha / tau : 0;
+        result.r = red * weight;
+        result.g = green * weight;
+        result.b = blue * weight;
+        result.a = alpha;
+    }
+
+    /**
+     * Gets the entry of the scalar value at a position, see
+     * {@link TransferFunction#getColor(int, TFColor)}.
+     */
+    private static int entry(double position) {
+        return (int) position;
+    }
+
+    /**
+     * Integrates a channel from the lowest value of the table up to a
+     * position.
+     */
+    private static double integral(double[] table, double position, int channel) {
+        int entry = entry(position);
+        int offset = ENTRY * entry;
+        return table[offset + 4 + channel] + (position - entry) * table[offset + channel];
+    }
+
+    private final TransferFunction tFunc;
+    private final int min;
+    private final int range;
+    private double[] table;
+    /**
+     * Version of the transfer function the table was computed from.
+     */
+    private int version;
+}
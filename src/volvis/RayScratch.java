@@ -0,0 +1,92 @@
+package volvis;
+
+import volume.VoxelGradient;
+
+/**
+ * Scratch vectors used while casting rays. Every render thread owns its own
+ * instance, so the ray casting hot path never shares mutable state between
+ * threads.
+ */
+class RayScratch {
+
+    /**
+     * Starting point of the ray, behind the volume.
+     */
+    final double[] pixelCoord = new double[3];
+
+    /**
+     * Point where the ray enters the volume.
+     */
+    final double[] entryPoint = new double[3];
+
+    /**
+     * Point where the ray leaves the volume.
+     */
+    final double[] exitPoint = new double[3];
+
+    /**
+     * Current sample position along the ray.
+     */
+    final double[] currentPos = new double[3];
+
+    /**
+     * Step between two samples along the ray.
+     */
+    final double[] increments = new double[3];
+
+    /**
+     * Start of the ray segment that leaves skipped empty space, or a position
+     * elsewhere on the ray while looking for smooth bricks, sampling the nodes
+     * of a maximum intensity projection or finding an isosurface.
+     */
+    final double[] segmentStart = new double[3];
+
+    /**
+     * Light vector used for shading.
+     */
+    final double[] lightVector = new double[3];
+
+    /**
+     * Vectors used to intersect the ray with the faces of the volume and the
+     * cutting plane.
+     */
+    final double[] planePos = new double[3];
+    final double[] planeNormal = new double[3];
+    final double[] intersection = new double[3];
+    final double[] difference = new double[3];
+
+    /**
+     * Vectors used by Phong shading.
+     */
+    final double[] toLightNormal = new double[3];
+    final double[] toViewNormal = new double[3];
+    final double[] invertGradient = new double[3];
+    final double[] gradientNormal = new double[3];
+    final double[] scaled = new double[3];
+    final double[] reflectionNormal = new double[3];
+
+    /**
+     * Color accumulated along the ray.
+     */
+    final TFColor color = new TFColor();
+
+    /**
+     * Interpolated gradient at the current sample.
+     */
+    final VoxelGradient gradient = new VoxelGradient();
+
+    /**
+     * Octree nodes along the ray for maximum intensity projection: the first
+     * sample and the number of samples in every node, and the node maximum.
+     * Grown as needed.
+     */
+    int[] nodeStart = new int[64];
+    int[] nodeSamples = new int[64];
+    short[] nodeMax = new short[64];
+
+    /**
+     * Samples skipped by early ray termination since the last time the
+     * renderer collected this count.
+     */
+    long skippedSamples;
+}
@@ -0,0 +1,2215 @@
+package volvis;
+
+import util.VectorMath;
+import volume.GradientVolume;
+import volume.MinMaxOctree;
+import volume.Volume;
+import volume.VoxelGradient;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Ray casting core of the {@link RaycastRenderer}, free of any GL or GUI
+ * dependency. It holds a volume with its gradients and min/max octree, the
+ * rendering settings, and renders images of the volume for a view matrix.
+ * <p>
+ * Everything a frame needs while it is rendered is kept in the frame itself,
+ * so several frames may be rendered at the same time, e.g. from different
+ * threads. A frame copies the settings when it starts, so they may be changed
+ * while it is rendered and take effect with the next frame; only the volume
+ * must not change meanwhile.
+ */
+public class RaycastEngine {
+
+    /**
+     * Volume that is rendered.
+     */
+    private Volume volume = null;
+
+    /**
+     * Gradient information of the volume.
+     */
+    private GradientVolume gradients = null;
+
+    /**
+     * Min/max octree of the volume, used to skip empty space.
+     */
+    private MinMaxOctree octree = null;
+
+    /**
+     * Finds the isosurface along the rays, keeping the hits of the last view.
+     */
+    private IsoSurfaceTracer isoTracer = null;
+
+    /**
+     * Axis aligned slices of the volume, for slicing axis aligned views.
+     */
+    private SliceCache sliceCache = null;
+
+    /**
+     * Transfer functions of the front and back (cutting plane) modes.
+     */
+    private TransferFunction tFuncFront, tFuncBack;
+
+    /**
+     * 2D transfer functions of the front and back (cutting plane) modes.
+     */
+    private TransferFunction2D tFunc2DFront, tFunc2DBack;
+
+    /**
+     * Modes of the front and back (cutting plane) side. See {@link RaycastMode}.
+     */
+    private RaycastMode modeFront = RaycastMode.SLICER;
+    private RaycastMode modeBack = RaycastMode.SLICER;
+
+    /**
+     * Whether we are in cutting plane mode or not.
+     */
+    private boolean cuttingPlaneMode = false;
+
+    /**
+     * Whether we are in shading mode or not.
+     */
+    private boolean shadingMode = false;
+
+    /**
+     * Iso values to use in Isosurface rendering.
+     */
+    private float isoValueFront = 95f;
+    private float isoValueBack = 95f;
+
+    /**
+     * Colors used for the isosurface rendering.
+     */
+    private final TFColor isoColorFront = new TFColor(1.0, 1.0, 0.0, 1.0);
+    private final TFColor isoColorBack = new TFColor(1.0, 1.0, 0.0, 1.0);
+
+    /**
+     * Cutting plane normal vector.
+     */
+    private final double[] planeNorm = new double[]{0d, 0d, 1d};
+
+    /**
+     * Cutting plane point.
+     */
+    private final double[] planePoint = new double[]{0d, 0d, 0d};
+
+    /**
+     * Whether compositing classifies ray segments with pre-integrated
+     * transfer function tables instead of single samples.
+     */
+    private boolean preIntegration = false;
+
+    /**
+     * Pre-integrated tables of the front and back transfer functions, created
+     * on first use.
+     */
+    private PreIntegrationTable preIntegrationFront, preIntegrationBack;
+
+    /**
+     * Whether maximum intensity projection skips the octree nodes that cannot
+     * raise the maximum of a ray, and stops at the maximum of the volume. It
+     * pays off for volumes with a dark, quiet background; on noisy data the
+     * nearest voxel samples are cheaper than walking the nodes.
+     */
+    private boolean mipAcceleration = false;
+
+    /**
+     * Whether maximum intensity projection interpolates the samples
+     * tri-linearly instead of taking the nearest voxel.
+     */
+    private boolean mipTrilinear = false;
+
+    /**
+     * Whether the slicer colors the voxel values with the front transfer
+     * function instead of a grey ramp.
+     */
+    private boolean slicerTransferFunction = false;
+
+    /**
+     * Distance, in voxel units along the view vector, from the center of the
+     * volume to the plane the slicer samples.
+     */
+    private double sliceOffset = 0;
+
+    /**
+     * Octree level of the nodes maximum intensity projection splits a ray
+     * into. Leaves would skip more samples but cost more to walk.
+     */
+    static final int MIP_LEVEL = 1;
+
+    /**
+     * Number of samples covered by one step through a smooth brick when
+     * sampling adaptively.
+     */
+    static final int ADAPTIVE_STRIDE = 4;
+
+    /**
+     * Opacity at which compositing with the 2D transfer function stops
+     * marching a ray. It keeps the threshold the ray had before
+     * {@link #opacityThreshold} was introduced, so its images are unchanged.
+     */
+    static final double TF2D_OPACITY_THRESHOLD = 0.999;
+
+    /**
+     * Whether compositing takes longer steps through bricks in which the
+     * transfer function varies little.
+     */
+    private boolean adaptiveSampling = false;
+
+    /**
+     * Largest change of a color or opacity channel between two samples for a
+     * brick to be sampled with longer steps.
+     */
+    private double adaptiveTolerance = 0.02;
+
+    /**
+     * Accumulated opacity at which compositing with the 1D transfer function
+     * stops marching a ray.
+     */
+    private double opacityThreshold = 0.99;
+
+    /**
+     * Number of samples the last finished frame did not take because their
+     * ray had already reached {@link #opacityThreshold}.
+     */
+    private volatile long skippedSamples;
+
+    /**
+     * Width and height, in pixels, of the image tiles that are ray cast in
+     * parallel.
+     */
+    private static final int TILE_SIZE = 32;
+
+    /**
+     * Largest number of image rows sliced as one task.
+     */
+    private static final int SLICE_ROWS = 16;
+
+    /**
+     * Memory budget, in bytes, of the slices extracted for axis aligned
+     * views.
+     */
+    private static final long SLICE_CACHE_BUDGET = 64L << 20;
+
+    /**
+     * Largest deviation of the components of uVec and vVec from 0 or 1 for
+     * which a view is sliced as axis aligned.
+     */
+    private static final double ALIGNED_EPSILON = 1e-9;
+
+    /**
+     * Pool on which the image tiles are ray cast.
+     */
+    private ForkJoinPool renderPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Memory budget, in bytes, of the lazily computed gradient bricks of a new
+     * volume.
+     */
+    private long gradientBudget = Runtime.getRuntime().maxMemory() / 4;
+
+    /**
+     * Scratch vectors of the thread that is currently casting rays.
+     */
+    private final ThreadLocal<RayScratch> scratch = ThreadLocal.withInitial(RayScratch::new);
+
+    /**
+     * Frame that is never cancelled.
+     */
+    private static final BooleanSupplier NEVER_CANCELLED = () -> false;
+
+    /**
+     * Creates an engine without a volume. {@link #setVolume(Volume)} must be
+     * called before rendering.
+     */
+    public RaycastEngine() {
+    }
+
+    /**
+     * Creates an engine rendering the given volume.
+     *
+     * @param vol Volume to be rendered.
+     */
+    public RaycastEngine(Volume vol) {
+        setVolume(vol);
+    }
+
+    /**
+     * Sets the volume to be rendered. Computes its gradients, lazily within
+     * the gradient budget, and its min/max octree, and resets the transfer
+     * functions to their defaults.
+     *
+     * @param vol Volume to be rendered.
+     */
+    public void setVolume(Volume vol) {
+        System.out.println("Computing gradients");
+        GradientVolume volumeGradients = new GradientVolume(vol, gradientBudget);
+
+        System.out.println("Building min/max octree");
+        setVolume(vol, volumeGradients, new MinMaxOctree(vol));
+    }
+
+    /**
+     * Sets the volume to be rendered together with its derived data, which
+     * may be shared with other engines rendering the same volume. Resets the
+     * transfer functions to their defaults.
+     *
+     * @param vol             Volume to be rendered.
+     * @param volumeGradients Gradients of vol.
+     * @param volumeOctree    Min/max octree of vol.
+     */
+    public void setVolume(Volume vol, GradientVolume volumeGradients, MinMaxOctree volumeOctree) {
+        volume = vol;
+        gradients = volumeGradients;
+        octree = volumeOctree;
+        isoTracer = new IsoSurfaceTracer(vol);
+        sliceCache = new SliceCache(vol, SLICE_CACHE_BUDGET);
+
+        tFuncFront = new TransferFunction(volume.getMinimum(), volume.getMaximum());
+        tFuncFront.setTestFunc();
+        tFunc2DFront = new TransferFunction2D((short) (volume.getMaximum() / 2), 0.2 * volume.getMaximum());
+
+        tFuncBack = new TransferFunction(volume.getMinimum(), volume.getMaximum());
+        tFuncBack.setTestFunc();
+        tFunc2DBack = new TransferFunction2D((short) (volume.getMaximum() / 2), 0.2 * volume.getMaximum());
+
+        // Set plane point
+        VectorMath.setVector(planePoint, volume.getDimX() / 2.0, volume.getDimY() / 2.0, volume.getDimZ() / 2.0);
+    }
+
+    public Volume getVolume() {
+        return volume;
+    }
+
+    public GradientVolume getGradients() {
+        return gradients;
+    }
+
+    public MinMaxOctree getOctree() {
+        return octree;
+    }
+
+    /**
+     * Gets the width and height of the images rendered of a volume: the
+     * length of the volume diagonal, rounded to an even number of pixels.
+     *
+     * @param vol Volume.
+     * @return Image size in pixels.
+     */
+    public static int getImageSize(Volume vol) {
+        int imageSize = (int) Math.floor(Math.sqrt(vol.getDimX() * vol.getDimX() + vol.getDimY() * vol.getDimY()
+                + vol.getDimZ() * vol.getDimZ()));
+        if (imageSize % 2 != 0) {
+            imageSize = imageSize + 1;
+        }
+        return imageSize;
+    }
+
+    /**
+     * Renders a full resolution image on the calling thread, with the tiles
+     * ray cast on the render pool.
+     *
+     * @param viewMatrix OpenGL View matrix, column major.
+     * @return The pixels, row by row from the top, as packed ARGB ints.
+     */
+    public int[] render(double[] viewMatrix) {
+        return renderFrame(viewMatrix, true).getPixels();
+    }
+
+    /**
+     * Renders a full resolution image on the calling thread, with the tiles
+     * ray cast on the render pool.
+     *
+     * @param viewMatrix OpenGL View matrix, column major.
+     * @return The image, of {@link #getImageSize(Volume)} pixels squared.
+     */
+    public BufferedImage renderImage(double[] viewMatrix) {
+        return renderFrame(viewMatrix, true).getImage();
+    }
+
+    /**
+     * Renders a full resolution image entirely on the calling thread, without
+     * using the render pool. Meant for rendering many frames at once, one
+     * frame per thread.
+     *
+     * @param viewMatrix OpenGL View matrix, column major.
+     * @return The image, of {@link #getImageSize(Volume)} pixels squared.
+     */
+    public BufferedImage renderImageOnCallingThread(double[] viewMatrix) {
+        return renderFrame(viewMatrix, false).getImage();
+    }
+
+    private FrameBuffer renderFrame(double[] viewMatrix, boolean parallel) {
+        if (volume == null) {
+            throw new IllegalStateException("No volume to render");
+        }
+        int imageSize = getImageSize(volume);
+        FrameBuffer image = new FrameBuffer(imageSize, imageSize);
+        if (RaycastMode.SLICER.equals(modeFront)) {
+            slicer(viewMatrix, image, NEVER_CANCELLED, parallel);
+        } else {
+            raycast(viewMatrix, image, 1, 1, NEVER_CANCELLED, parallel);
+        }
+        return image;
+    }
+
+    /**
+     * Renders an image in the front mode, using the slicer or the ray caster.
+     *
+     * @param viewMatrix OpenGL View matrix.
+     * @param image      Image to render into.
+     * @param increment  Increment in the pixel domain in pixel units.
+     * @param sampleStep Sample step in voxel units.
+     * @param cancelled  Checked between rows or tiles; the frame stops once it returns true.
+     */
+    void render(double[] viewMatrix, FrameBuffer image, int increment, int sampleStep, BooleanSupplier cancelled) {
+        if (RaycastMode.SLICER.equals(modeFront)) {
+            slicer(viewMatrix, image, cancelled, true);
+        } else {
+            raycast(viewMatrix, image, increment, sampleStep, cancelled, true);
+        }
+    }
+
+    /**
+     * Gets the corresponding voxel using Nearest Neighbors.
+     *
+     * @param coord Pixel coordinate in 3D space of the voxel we want to get.
+     * @return The voxel value.
+     */
+    private short getVoxel(double[] coord) {
+        // Get coordinates
+        double dx = coord[0], dy = coord[1], dz = coord[2];
+
+        // Verify they are inside the volume
+        if (dx < 0 || dx >= volume.getDimX() || dy < 0 || dy >= volume.getDimY()
+                || dz < 0 || dz >= volume.getDimZ()) {
+
+            // If not, jus return 0
+            return 0;
+        }
+
+        // Get the closest x, y, z to dx, dy, dz that are integers
+        // This is important as our data is discrete (not continuous)
+        int x = (int) Math.floor(dx);
+        int y = (int) Math.floor(dy);
+        int z = (int) Math.floor(dz);
+
+        // Finally, get the voxel from the Volume for the corresponding coordinates
+        return volume.getVoxel(x, y, z);
+    }
+
+    /**
+     * Slices into image, stopping at the first row that starts after the
+     * frame was cancelled. The plane of the slice is affine in the pixel
+     * coordinates, so the offsets along uVec of every column and along vVec
+     * of every row are computed once and added per pixel. Voxel values are
+     * mapped to packed colors through a table, and the rows are sliced in
+     * parallel on {@link #renderPool}, or one after the other on the calling
+     * thread. When the plane is perpendicular to an axis, the voxel values
+     * are read from {@link #sliceCache} instead of being interpolated.
+     *
+     * @param viewMatrix OpenGL View matrix {
+     * @see <a href="www.songho.ca/opengl/gl_transform.html#modelview">link</a>}.
+     * @param image      Image to render into.
+     * @param cancelled  Whether the frame was cancelled.
+     * @param parallel   Whether to slice the rows on the render pool.
+     */
+    void slicer(double[] viewMatrix, FrameBuffer image, BooleanSupplier cancelled, boolean parallel) {
+
+        // Clear the image
+        image.clear();
+
+        Slice slice = new Slice(viewMatrix, image, cancelled, parallel ? renderPool : null);
+        // sample on a plane through the origin of the volume data
+        int rows = 2 * (image.getHeight() / 2);
+        if (parallel) {
+            renderPool.invoke(new SliceRowsTask(slice, 0, rows));
+        } else {
+            sliceRows(slice, 0, rows);
+        }
+    }
+
+    /**
+     * State of a single slice, shared by the threads slicing its rows.
+     */
+    private final class Slice {
+
+        final int[] pixels;
+        final int width, columns;
+        final BooleanSupplier cancelled;
+        final double[] vVec = new double[3];
+        final double[] volumeCenter = new double[3];
+        /**
+         * Image center, half the image width in pixels.
+         */
+        final float imageCenter;
+        /**
+         * Offsets of the columns along uVec, per axis.
+         */
+        final double[] columnX, columnY, columnZ;
+        /**
+         * Packed color of every voxel value from colorsMin on.
+         */
+        final int[] colors;
+        final int colorsMin;
+        /**
+         * For an axis aligned view, the slice the pixels are read from, the
+         * volume axes and directions of uVec and vVec, the slice samples of
+         * the first column and row, and the highest slice samples that are
+         * interpolated. Otherwise, aligned is null.
+         */
+        final SliceCache.AxisSlice aligned;
+        final int axisU, axisV, signU, signV, firstU, firstV, limitU, limitV;
+
+        Slice(double[] viewMatrix, FrameBuffer image, BooleanSupplier cancelled, ForkJoinPool pool) {
+            this.cancelled = cancelled;
+            pixels = image.getPixels();
+            width = image.getWidth();
+            columns = 2 * (width / 2);
+
+            // vector uVec and vVec define a plane through the origin,
+            // perpendicular to the view vector viewVec which is going from the view point towards the object
+            // uVec contains the up vector of the camera in world coordinates (image vertical)
+            // vVec contains the horizontal vector in world coordinates (image horizontal)
+            double[] uVec = new double[3];
+            double[] viewVec = new double[3];
+            VectorMath.setVector(viewVec, viewMatrix[2], viewMatrix[6], viewMatrix[10]);
+            VectorMath.setVector(uVec, viewMatrix[0], viewMatrix[4], viewMatrix[8]);
+            VectorMath.setVector(vVec, viewMatrix[1], viewMatrix[5], viewMatrix[9]);
+            // the plane through the center of the volume, moved by the slice offset
+            VectorMath.setVector(volumeCenter, volume.getDimX() / 2.0 + sliceOffset * viewVec[0],
+                    volume.getDimY() / 2.0 + sliceOffset * viewVec[1], volume.getDimZ() / 2.0 + sliceOffset * viewVec[2]);
+
+            imageCenter = width / 2f;
+            columnX = new double[columns];
+            columnY = new double[columns];
+            columnZ = new double[columns];
+            for (int i = 0; i < columns; i++) {
+                columnX[i] = uVec[0] * (i - imageCenter);
+                columnY[i] = uVec[1] * (i - imageCenter);
+                columnZ[i] = uVec[2] * (i - imageCenter);
+            }
+
+            // interpolated values lie between the extremes of the volume, or are 0 outside it
+            colorsMin = Math.min(0, volume.getMinimum());
+            int colorsMax = Math.max(0, volume.getMaximum());
+            colors = new int[colorsMax - colorsMin + 1];
+            double max = volume.getMaximum();
+            TransferFunction tFunction = slicerTransferFunction ? tFuncFront : null;
+            TFColor pixelColor = new TFColor();
+            for (int val = colorsMin; val <= colorsMax; val++) {
+                if (tFunction != null) {
+                    tFunction.getColor(Math.max(tFunction.getMinimum(), Math.min(tFunction.getMaximum(), val)),
+                            pixelColor);
+                } else {
+                    // Map the intensity to a grey value by linear scaling
+                    pixelColor.r = val / max;
+                    pixelColor.g = pixelColor.r;
+                    pixelColor.b = pixelColor.r;
+                    pixelColor.a = val > 0 ? 1.0 : 0.0;  // this makes intensity 0 completely transparent and the rest opaque
+                }
+                colors[val - colorsMin] = computePackedPixelColor(pixelColor.r, pixelColor.g, pixelColor.b,
+                        pixelColor.a);
+            }
+
+            axisU = getAlignedAxis(uVec);
+            axisV = getAlignedAxis(vVec);
+            int axis = 3 - axisU - axisV;
+            int[] dims = {volume.getDimX(), volume.getDimY(), volume.getDimZ()};
+            if (axisU >= 0 && axisV >= 0 && axisU != axisV) {
+                // the image and volume centers are whole or half numbers, so within the plane the pixels lie
+                // on the voxel grid, or half a voxel off it for odd image sizes or volume dimensions
+                signU = uVec[axisU] > 0 ? 1 : -1;
+                signV = vVec[axisV] > 0 ? 1 : -1;
+                double[] origin = new double[3];
+                origin[axis] = volumeCenter[axis];
+                double columnOrigin = volumeCenter[axisU] - signU * imageCenter;
+                double rowOrigin = volumeCenter[axisV] - signV * imageCenter;
+                firstU = (int) Math.floor(columnOrigin);
+                firstV = (int) Math.floor(rowOrigin);
+                origin[axisU] = columnOrigin - firstU;
+                origin[axisV] = rowOrigin - firstV;
+                limitU = (int) Math.floor(dims[axisU] - 2 - origin[axisU]);
+                limitV = (int) Math.floor(dims[axisV] - 2 - origin[axisV]);
+                aligned = origin[axis] >= 0 && origin[axis] <= dims[axis] - 2
+                        ? sliceCache.getSlice(axis, origin, pool)
+                        : new SliceCache.AxisSlice(null, 0, null);
+            } else {
+                signU = signV = firstU = firstV = limitU = limitV = 0;
+                aligned = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the axis a unit vector lies along, if it does.
+     *
+     * @return 0, 1 or 2 for x, y or z, or -1 if vec is not axis aligned.
+     */
+    private static int getAlignedAxis(double[] vec) {
+        int axis = -1;
+        for (int i = 0; i < 3; i++) {
+            if (Math.abs(vec[i]) >= 1 - ALIGNED_EPSILON) {
+                axis = i;
+            } else if (Math.abs(vec[i]) > ALIGNED_EPSILON) {
+                return -1;
+            }
+        }
+        return axis;
+    }
+
+    /**
+     * Slices rows firstRow up to endRow, stopping at the first row that
+     * starts after the slice was cancelled.
+     */
+    private void sliceRows(Slice slice, int firstRow, int endRow) {
+        double[] pixelCoord = scratch.get().pixelCoord;
+        int[] pixels = slice.pixels;
+        int[] colors = slice.colors;
+        for (int j = firstRow; j < endRow; j++) {
+            if (slice.cancelled.getAsBoolean()) {
+                return;
+            }
+            if (slice.aligned != null) {
+                sliceAlignedRow(slice, j);
+                continue;
+            }
+            // uVec * (i - imageCenter) + vVec * (j - imageCenter) + volumeCenter, with the row terms taken out of the loop
+            double rowX = slice.vVec[0] * (j - slice.imageCenter);
+            double rowY = slice.vVec[1] * (j - slice.imageCenter);
+            double rowZ = slice.vVec[2] * (j - slice.imageCenter);
+            double centerX = slice.volumeCenter[0], centerY = slice.volumeCenter[1];
+            double centerZ = slice.volumeCenter[2];
+            int offset = j * slice.width;
+            for (int i = 0; i < slice.columns; i++) {
+                pixelCoord[0] = slice.columnX[i] + rowX + centerX;
+                pixelCoord[1] = slice.columnY[i] + rowY + centerY;
+                pixelCoord[2] = slice.columnZ[i] + rowZ + centerZ;
+                int val = (int) volume.getVoxelTrilinear(pixelCoord);
+                pixels[offset + i] = colors[val - slice.colorsMin];
+            }
+        }
+    }
+
+    /**
+     * Slices a row of an axis aligned view from its cached slice. Voxels
+     * outside the range that {@link Volume#getVoxelTrilinear(double[])}
+     * interpolates are 0, as in the other views.
+     */
+    private void sliceAlignedRow(Slice slice, int j) {
+        SliceCache.AxisSlice aligned = slice.aligned;
+        int[] pixels = slice.pixels;
+        int[] colors = slice.colors;
+        int outside = colors[-slice.colorsMin];
+        int offset = j * slice.width;
+        int v = slice.firstV + slice.signV * j;
+        if (aligned.voxels == null || v < 0 || v > slice.limitV) {
+            Arrays.fill(pixels, offset, offset + slice.columns, outside);
+            return;
+        }
+        short[] voxels = aligned.voxels;
+        int row = aligned.offset + v * aligned.strides[slice.axisV];
+        int stride = aligned.strides[slice.axisU];
+        for (int i = 0; i < slice.columns; i++) {
+            int u = slice.firstU + slice.signU * i;
+            pixels[offset + i] = u >= 0 && u <= slice.limitU
+                    ? colors[voxels[row + u * stride] - slice.colorsMin] : outside;
+        }
+    }
+
+    /**
+     * Slices a range of rows, splitting the range in halves until at most
+     * {@link #SLICE_ROWS} rows remain.
+     */
+    private class SliceRowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Slice slice;
+        private final int firstRow, endRow;
+
+        SliceRowsTask(Slice slice, int firstRow, int endRow) {
+            this.slice = slice;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - firstRow <= SLICE_ROWS) {
+                sliceRows(slice, firstRow, endRow);
+                return;
+            }
+            int middle = (firstRow + endRow) >>> 1;
+            invokeAll(new SliceRowsTask(slice, firstRow, middle), new SliceRowsTask(slice, middle, endRow));
+        }
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Updates the image (result of rendering) using MIP raycasting. It returns
+     * the color assigned to a ray/pixel given its starting and ending points,
+     * and the direction of the ray.
+     *
+     * @param entryPoint Starting point of the ray.
+     * @param exitPoint  Last point of the ray.
+     * @param rayVector  Direction of the ray.
+     * @param sampleStep Sample step of the ray.
+     * @param result     Color to store the result in.
+     * @return Color assigned to a ray/pixel.
+     */
+    private TFColor traceRayMIP(double[] currentPos, double[] increments, int nrSamples, TFColor result) {
+        double maximum = 0;
+        do {
+            double value = getVoxel(currentPos) / 255.;
+            if (value > maximum) {
+                maximum = value;
+            }
+            for (int i = 0; i < 3; i++) {
+                currentPos[i] += increments[i];
+            }
+            nrSamples--;
+        } while (nrSamples > 0);
+
+        double alpha;
+        double r, g, b;
+        if (maximum > 0.0) { // if the maximum = 0 make the voxel transparent
+            alpha = 1.0;
+        } else {
+            alpha = 0.0;
+        }
+        r = g = b = maximum;
+        result.r = r;
+        result.g = g;
+        result.b = b;
+        result.a = alpha;
+        return result;
+    }
+
+    /**
+     * Computes the same maximum intensity projection as
+     * {@link #traceRayMIP(double[], double[], int, TFColor)}, using the
+     * octree as a max pyramid. The ray is split into the octree nodes of
+     * {@link #MIP_LEVEL} it passes through. The node with the highest maximum
+     * is sampled first, after which every node whose maximum cannot raise the
+     * maximum of the ray is skipped. As the maximum does not depend on the
+     * order of the samples, the result is the same.
+     *
+     * @param currentPos    The current position in the ray
+     * @param increments    The direction a step on the ray is in
+     * @param nrSamples     how many points to sample along the ray
+     * @param pyramid       Octree classification of the volume, or null to take every sample
+     * @param volumeMaximum Highest voxel value of the volume
+     * @param trilinear     Whether to interpolate the samples tri-linearly
+     * @param scratch       Scratch state of the render thread
+     * @param result        Color to store the result in.
+     * @return Color assigned to a ray/pixel.
+     */
+    private TFColor traceRayMIPAccelerated(double[] currentPos, double[] increments, int nrSamples,
+                                           EmptySpaceMap pyramid, short volumeMaximum, boolean trilinear,
+                                           RayScratch scratch, TFColor result) {
+        // split the ray into nodes; samples outside the octree are never skipped
+        int level = Math.min(MIP_LEVEL, octree.getLevelCount() - 1);
+        double[] pos = scratch.segmentStart;
+        int nodes = 0;
+        int brightest = 0;
+        for (int sample = 0; sample < nrSamples; ) {
+            for (int i = 0; i < 3; i++) {
+                pos[i] = currentPos[i] + sample * increments[i];
+            }
+            int node = pyramid == null ? -1 : pyramid.getNode(level, pos);
+            if (node < 0 && nodes > 0 && scratch.nodeMax[nodes - 1] == Short.MAX_VALUE) {
+                scratch.nodeSamples[nodes - 1]++;
+                sample++;
+                continue;
+            }
+            if (nodes == scratch.nodeStart.length) {
+                scratch.nodeStart = Arrays.copyOf(scratch.nodeStart, 2 * nodes);
+                scratch.nodeSamples = Arrays.copyOf(scratch.nodeSamples, 2 * nodes);
+                scratch.nodeMax = Arrays.copyOf(scratch.nodeMax, 2 * nodes);
+            }
+            int samples = node < 0 ? (pyramid == null ? nrSamples : 1)
+                    : pyramid.getNodeSamples(level, pos, increments, nrSamples - sample);
+            scratch.nodeStart[nodes] = sample;
+            scratch.nodeSamples[nodes] = samples;
+            scratch.nodeMax[nodes] = node < 0 ? Short.MAX_VALUE : octree.getMax(level, node);
+            if (scratch.nodeMax[nodes] > scratch.nodeMax[brightest]) {
+                brightest = nodes;
+            }
+            nodes++;
+            sample += samples;
+        }
+
+        // in voxel units, scaled like traceRayMIP at the end
+        double maximum = 0;
+        int taken = 0;
+        for (int n = -1; n < nodes; n++) {
+            // the brightest node first, then the others in ray order
+            int node = n < 0 ? brightest : n;
+            if (n == brightest || scratch.nodeMax[node] <= maximum) {
+                continue;
+            }
+            maximum = Math.max(maximum, sampleMaximum(currentPos, increments, scratch.nodeStart[node],
+                    scratch.nodeSamples[node], trilinear, pos));
+            taken += scratch.nodeSamples[node];
+            if (pyramid != null && maximum >= volumeMaximum) {
+                // nothing else on the ray can be brighter
+                break;
+            }
+        }
+        scratch.skippedSamples += nrSamples - taken;
+
+        result.r = result.g = result.b = maximum / 255.;
+        result.a = maximum > 0.0 ? 1.0 : 0.0;
+        return result;
+    }
+
+    /**
+     * Gets the maximum of consecutive samples of a ray, in voxel units.
+     *
+     * @param start   First sample along the ray
+     * @param samples Number of samples
+     * @param pos     Scratch array for the sample position
+     */
+    private double sampleMaximum(double[] currentPos, double[] increments, int start, int samples,
+                                 boolean trilinear, double[] pos) {
+        for (int i = 0; i < 3; i++) {
+            pos[i] = currentPos[i] + start * increments[i];
+        }
+        double maximum = 0;
+        for (; samples > 0; samples--) {
+            double value = trilinear ? volume.getVoxelTrilinear(pos) : getVoxel(pos);
+            if (value > maximum) {
+                maximum = value;
+            }
+            for (int i = 0; i < 3; i++) {
+                pos[i] += increments[i];
+            }
+        }
+        return maximum;
+    }
+
+    /**
+     * Updates the image (result of rendering) using the Isosurface raycasting.
+     * It returns the color assigned to a ray/pixel given its starting and
+     * ending points, and the direction of the ray.
+     *
+     * @param currentPos  The current position in the ray, moved to the hit
+     * @param increments  The direction a step on the ray is in
+     * @param nrSamples   how many points to sample along the ray
+     * @param isFrontMode Whether to use the front or the back (cutting plane) settings
+     * @param isoValue    Iso value of those settings
+     * @param isoColor    Iso color of those settings
+     * @param emptySpace  Bricks whose maximum lies below the iso value, or null
+     * @param hits        Hits of the last frames with the same view, see {@link IsoSurfaceTracer.GBuffer#hits}
+     * @param pixel       Index of the ray in hits
+     * @param scratch     Scratch state of the render thread
+     * @param result      Color to store the result in.
+     * @return Color assigned to a ray/pixel.
+     */
+    private TFColor traceRayIso(double[] currentPos, double[] increments, int nrSamples, boolean isFrontMode,
+                                float isoValue, TFColor isoColor, EmptySpaceMap emptySpace, long[] hits, int pixel,
+                                RayScratch scratch, TFColor result) {
+        double depth = isoTracer.findHit(currentPos, increments, nrSamples, isoValue, emptySpace, hits, pixel,
+                scratch.segmentStart);
+        if (depth < 0) {
+            result.r = result.g = result.b = result.a = 0;
+            return result;
+        }
+        // the hit is where the ray is shaded
+        for (int i = 0; i < 3; i++) {
+            currentPos[i] += depth * increments[i];
+        }
+
+        // isoColor contains the isosurface color from the interface
+        result.r = isoColor.r;
+        result.g = isoColor.g;
+        result.b = isoColor.b;
+        result.a = 1.0;
+        return result;
+    }
+
+    /**
+     * Calculates the composite color. The samples are composited front to back,
+     * starting at the exit point (the side of the volume facing the viewer), and
+     * the ray stops as soon as the accumulated opacity reaches
+     * {@link #opacityThreshold}.
+     *
+     * @param nrSamples        how many points to sample along the ray
+     * @param currentPos       The current position in the ray
+     * @param increments       The direction a step on the ray is in
+     * @param tFunction        Which transfer function values to use in the calculation
+     * @param lut              Premultiplied LUT of tFunction, opacity corrected for the sample step
+     * @param strideLUT        The LUT corrected for {@link #ADAPTIVE_STRIDE} samples, or null to not sample adaptively
+     * @param emptySpace       Bricks that are transparent or smooth under tFunction, or null
+     * @param opacityThreshold Opacity at which the ray stops
+     * @param scratch          Scratch state of the render thread, the result is stored in its color
+     * @return
+     */
+    private TFColor compositeCalculationRGB(int nrSamples, double[] currentPos, double[] increments,
+                                            TransferFunction tFunction, float[] lut, float[] strideLUT,
+                                            EmptySpaceMap emptySpace, double opacityThreshold,
+                                            RayScratch scratch) {
+        double r = 0, g = 0, b = 0;
+        double transparency = 1;
+        // samples left before the empty space map has to be queried again
+        int denseSamples = 0;
+        // samples covered by a step until the empty space map is queried again
+        int stride = 1;
+
+        while (nrSamples > 0) {
+            if (denseSamples == 0) {
+                int span = emptySpace == null ? -nrSamples : emptySpace.span(currentPos, increments, nrSamples);
+                if (span > 0) {
+                    // transparent samples leave the composited color unchanged, so jump over them
+                    advance(currentPos, increments, span);
+                    nrSamples -= span;
+                    continue;
+                }
+                denseSamples = span < 0 ? -span : 1;
+                stride = 1;
+                if (strideLUT != null) {
+                    int smoothSamples = smoothRun(emptySpace, currentPos, increments, nrSamples, scratch);
+                    if (smoothSamples >= ADAPTIVE_STRIDE) {
+                        denseSamples = smoothSamples;
+                        stride = ADAPTIVE_STRIDE;
+                    }
+                }
+            }
+
+            double value = volume.getVoxelTrilinear(currentPos);
+            int intValue = (int) value;
+            // get transfer function value at current position
+            int offset = tFunction.getLUToffset(intValue);
+            // one sample stands for a whole stride in a smooth brick, with its opacity corrected for that length
+            int step = denseSamples >= stride ? stride : 1;
+            float[] stepLUT = step == 1 ? lut : strideLUT;
+
+            //the compositing formula, with the colors premultiplied by their opacity
+            r += transparency * stepLUT[offset];
+            g += transparency * stepLUT[offset + 1];
+            b += transparency * stepLUT[offset + 2];
+            transparency *= 1 - stepLUT[offset + 3];
+
+            //move forwards along the ray
+            advance(currentPos, increments, step);
+            nrSamples -= step;
+            denseSamples -= step;
+
+            //stop when the ray is 'more or less at full opacity level'
+            if (1 - transparency >= opacityThreshold) {
+                scratch.skippedSamples += nrSamples;
+                break;
+            }
+        }
+        TFColor result = scratch.color;
+        result.r = r;
+        result.g = g;
+        result.b = b;
+        result.a = 1.0;
+        return result;
+    }
+
+    /**
+     * Calculates the composite color from pre-integrated ray segments. Every
+     * pair of consecutive samples is one segment, classified by the table
+     * entry of its front and back value, and the segments are composited front
+     * to back until the accumulated opacity reaches {@link #opacityThreshold}.
+     *
+     * @param nrSamples        how many points to sample along the ray
+     * @param currentPos       The current position in the ray
+     * @param increments       The direction a step on the ray is in
+     * @param sampleStep       Distance between two samples in voxel units
+     * @param preIntegrated    Classification of the segments
+     * @param table            Table of preIntegrated for the frame
+     * @param adaptive         Whether to sample smooth bricks every {@link #ADAPTIVE_STRIDE} samples
+     * @param emptySpace       Bricks that are transparent or smooth under the transfer function, or null
+     * @param opacityThreshold Opacity at which the ray stops
+     * @param scratch          Scratch state of the render thread, the result is stored in its color
+     * @return The composited color
+     */
+    private TFColor compositePreIntegrated(int nrSamples, double[] currentPos, double[] increments, int sampleStep,
+                                           PreIntegrationTable preIntegrated, double[] table, boolean adaptive,
+                                           EmptySpaceMap emptySpace, double opacityThreshold,
+                                           RayScratch scratch) {
+        TFColor segmentColor = scratch.color;
+        double r = 0, g = 0, b = 0;
+        double transparency = 1;
+        // samples left before the empty space map has to be queried again
+        int denseSamples = 0;
+        // samples covered by a step until the empty space map is queried again
+        int stride = 1;
+        // table position of the previous sample, the front of the current segment, or -1 at the start of the ray
+        double front = -1;
+        // samples between the front and the back of the current segment
+        int segment = 1;
+
+        while (nrSamples > 0) {
+            if (denseSamples == 0) {
+                int span = emptySpace == null ? -nrSamples : emptySpace.span(currentPos, increments, nrSamples);
+                if (span > 0) {
+                    // segments between transparent samples are transparent, but the segment
+                    // leaving the empty space may cross opaque values, so it starts at the last skipped sample
+                    advance(currentPos, increments, span);
+                    nrSamples -= span;
+                    double[] lastSkipped = VectorMath.difference(currentPos, increments, scratch.segmentStart);
+                    front = preIntegrated.position(volume.getVoxelTrilinear(lastSkipped));
+                    segment = 1;
+                    continue;
+                }
+                denseSamples = span < 0 ? -span : 1;
+                stride = 1;
+                if (adaptive) {
+                    int smoothSamples = smoothRun(emptySpace, currentPos, increments, nrSamples, scratch);
+                    if (smoothSamples >= ADAPTIVE_STRIDE) {
+                        denseSamples = smoothSamples;
+                        stride = ADAPTIVE_STRIDE;
+                    }
+                }
+            }
+
+            double back = preIntegrated.position(volume.getVoxelTrilinear(currentPos));
+            if (front >= 0) {
+                preIntegrated.classify(table, front, back, segment * sampleStep, segmentColor);
+                r += transparency * segmentColor.r;
+                g += transparency * segmentColor.g;
+                b += transparency * segmentColor.b;
+                transparency *= 1 - segmentColor.a;
+            }
+            front = back;
+
+            //move forwards along the ray, a whole stride at once in a smooth brick
+            segment = denseSamples >= stride ? stride : 1;
+            advance(currentPos, increments, segment);
+            nrSamples -= segment;
+            denseSamples -= segment;
+
+            //stop when the ray is 'more or less at full opacity level'
+            if (1 - transparency >= opacityThreshold) {
+                scratch.skippedSamples += nrSamples;
+                break;
+            }
+        }
+        TFColor result = scratch.color;
+        result.r = r;
+        result.g = g;
+        result.b = b;
+        result.a = 1.0;
+        return result;
+    }
+
+    /**
+     * Calculates the composite color using the 2D transfer function. The
+     * samples are composited front to back onto color, and the ray stops as
+     * soon as its opacity reaches {@link #TF2D_OPACITY_THRESHOLD}.
+     *
+     * @param function2D The 2D transfer function
+     * @param color      Initial color, updated in place
+     * @param currentPos The current position in the ray
+     * @param increments The direction a step on the ray is in
+     * @param nrSamples  how many points to sample along the ray
+     * @param emptySpace Bricks outside the intensity range of function2D, or null
+     * @param scratch    Scratch state of the render thread
+     * @return The composited color
+     */
+    TFColor computeTF2DColor(TransferFunction2D function2D, TFColor color, double[] currentPos, double[] increments,
+                             int nrSamples, EmptySpaceMap emptySpace, RayScratch scratch) {
+        // samples left before the empty space map has to be queried again
+        int denseSamples = 0;
+
+        //stop at end of ray OR when opacity is close to max
+        while (nrSamples > 0 && color.a < TF2D_OPACITY_THRESHOLD) {
+            if (denseSamples == 0) {
+                int span = emptySpace == null ? -nrSamples : emptySpace.span(currentPos, increments, nrSamples);
+                if (span > 0) {
+                    //samples outside the intensity range of the triangle widget have zero opacity
+                    advance(currentPos, increments, span);
+                    nrSamples -= span;
+                    continue;
+                }
+                denseSamples = span < 0 ? -span : 1;
+            }
+
+            //calculate gradient magnitude and intensity of current voxel
+            VoxelGradient voxelGradient = gradients.getGradientTrilinear(currentPos, scratch.gradient);
+            double voxelIntensity = volume.getVoxelTrilinear(currentPos);
+
+            //calculate opacity of current voxel
+            double opacity = computeOpacity2DTF(function2D.baseIntensity, function2D.radius, voxelIntensity, voxelGradient.mag);
+
+            //composite current opacity and previous voxel component
+            color = compositeColors2D(function2D.color, color, opacity);
+
+            //increment position
+            advance(currentPos, increments, 1);
+            nrSamples--;
+            denseSamples--;
+        }
+        scratch.skippedSamples += nrSamples;
+        return color;
+    }
+
+    /**
+     * Counts the samples, starting at the current position, that lie in
+     * consecutive smooth nodes along the ray.
+     *
+     * @param emptySpace Classification of the smooth bricks.
+     * @param currentPos The current position in the ray.
+     * @param increments The direction a step on the ray is in.
+     * @param nrSamples  Number of samples left on the ray.
+     * @param scratch    Scratch state of the render thread.
+     * @return The number of samples, zero if the current brick is not smooth.
+     */
+    private static int smoothRun(EmptySpaceMap emptySpace, double[] currentPos, double[] increments, int nrSamples,
+                                 RayScratch scratch) {
+        double[] next = scratch.segmentStart;
+        int samples = 0;
+        while (samples < nrSamples) {
+            for (int i = 0; i < 3; i++) {
+                next[i] = currentPos[i] + samples * increments[i];
+            }
+            int span = emptySpace.smoothSpan(next, increments, nrSamples - samples);
+            if (span <= 0) {
+                break;
+            }
+            samples += span;
+        }
+        return samples;
+    }
+
+    /**
+     * Moves a position a number of samples along the ray.
+     *
+     * @param currentPos The current position in the ray, updated in place.
+     * @param increments The direction a step on the ray is in.
+     * @param samples    Number of samples to move.
+     */
+    private static void advance(double[] currentPos, double[] increments, int samples) {
+        for (int i = 0; i < 3; i++) {
+            currentPos[i] += samples * increments[i];
+        }
+    }
+
+    /**
+     * Classifies the octree nodes that cannot contribute to the image in the
+     * given mode, using the transfer function or iso value of the frame. When
+     * sampling adaptively, it also classifies the leaf bricks in which the
+     * color changes by at most {@link #adaptiveTolerance} over a stride.
+     *
+     * @param frame       Frame whose settings to use.
+     * @param isFrontMode Whether to use the front or the back (cutting plane) settings.
+     * @return The classification, or null if the mode does not skip empty space.
+     */
+    private EmptySpaceMap createEmptySpaceMap(Frame frame, boolean isFrontMode) {
+        switch (frame.getRaycastMode(isFrontMode)) {
+            case COMPOSITING:
+                TransferFunction tFunction = isFrontMode ? frame.tFuncFront : frame.tFuncBack;
+                if (frame.adaptive) {
+                    double tolerance = adaptiveTolerance;
+                    double strideLength = ADAPTIVE_STRIDE * frame.sampleStep;
+                    return new EmptySpaceMap(octree, tFunction::isTransparent, node -> {
+                        short min = octree.getMin(0, node);
+                        short max = octree.getMax(0, node);
+                        // the value can change by no more than the brick range, nor than its steepest slope allows
+                        double valueChange = Math.min(max - min,
+                                Math.sqrt(3) * octree.getMaxDifference(node) * strideLength);
+                        double colorChange = Math.min(tFunction.getVariation(min, max),
+                                tFunction.getMaxSlope(min, max) * valueChange);
+                        // transparent bricks are left to empty space skipping
+                        return colorChange <= tolerance && !tFunction.isTransparent(min, max);
+                    });
+                }
+                return new EmptySpaceMap(octree, tFunction::isTransparent);
+            case TRANSFER2D:
+                // computeOpacity2DTF is only non-zero within radius of the base intensity
+                TransferFunction2D tFunction2D = isFrontMode ? frame.tFunc2DFront : frame.tFunc2DBack;
+                double low = tFunction2D.baseIntensity - Math.abs(tFunction2D.radius);
+                double high = tFunction2D.baseIntensity + Math.abs(tFunction2D.radius);
+                return new EmptySpaceMap(octree, (min, max) -> max <= low || min >= high);
+            case ISO_SURFACE:
+                float isoValue = isFrontMode ? frame.isoValueFront : frame.isoValueBack;
+                return new EmptySpaceMap(octree, (min, max) -> max < isoValue);
+            case MIP:
+                // a black node never raises the maximum; brighter ones are skipped per ray
+                return frame.mipAcceleration ? new EmptySpaceMap(octree, (min, max) -> max <= 0) : null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Gets the pre-integrated table of the transfer function of a mode,
+     * creating it when the transfer function was replaced.
+     *
+     * @param frame       Frame whose settings to use.
+     * @param isFrontMode Whether to use the front or the back (cutting plane) settings.
+     * @return The table, or null if the mode does not use one.
+     */
+    private synchronized PreIntegrationTable getPreIntegrationTable(Frame frame, boolean isFrontMode) {
+        if (!frame.preIntegration || frame.getRaycastMode(isFrontMode) != RaycastMode.COMPOSITING) {
+            return null;
+        }
+        TransferFunction tFunction = isFrontMode ? frame.tFuncFront : frame.tFuncBack;
+        PreIntegrationTable table = isFrontMode ? preIntegrationFront : preIntegrationBack;
+        if (table == null || table.getTransferFunction() != tFunction) {
+            table = new PreIntegrationTable(tFunction);
+            if (isFrontMode) {
+                preIntegrationFront = table;
+            } else {
+                preIntegrationBack = table;
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Gets the premultiplied, opacity corrected LUT of the transfer function
+     * of a mode that composites single samples.
+     *
+     * @param frame       Frame whose settings to use.
+     * @param isFrontMode Whether to use the front or the back (cutting plane) settings.
+     * @param sampleStep  Sample step the LUT is corrected for.
+     * @return The LUT, or null if the mode does not use one.
+     */
+    private float[] getModeLUT(Frame frame, boolean isFrontMode, int sampleStep) {
+        if (frame.getRaycastMode(isFrontMode) != RaycastMode.COMPOSITING || frame.preIntegration) {
+            return null;
+        }
+        return (isFrontMode ? frame.tFuncFront : frame.tFuncBack).getPremultipliedLUT(sampleStep);
+    }
+
+    public TFColor compositeColors2D(TFColor functionColor, TFColor color, double opacityNextVoxel) {
+        //update color with voxel component
+        color.r += (1 - color.a) * functionColor.r * opacityNextVoxel;
+        color.g += (1 - color.a) * functionColor.g * opacityNextVoxel;
+        color.b += (1 - color.a) * functionColor.b * opacityNextVoxel;
+        color.a += (1 - color.a) * functionColor.a * opacityNextVoxel;
+
+        return color;
+    }
+
+
+    /**
+     * Computes the opacity based on the value of the pixel and values of the
+     * triangle widget. {@link #tFunc2DFront} contains the values of the base
+     * intensity and radius. {@link TransferFunction2D#baseIntensity} and
+     * {@link TransferFunction2D#radius} are in image intensity units.
+     *
+     * @param intensity     Value of the material.
+     * @param radius        Radius of the material.
+     * @param voxelValue    Voxel value.
+     * @param gradMagnitude Gradient magnitude.
+     * @return
+     */
+    public double computeOpacity2DTF(double intensity, double radius,
+                                     double voxelValue, double gradMagnitude) {
+        double angle = Math.atan(gradMagnitude / Math.abs(voxelValue - intensity));
+
+        double wedgeAngle = Math.atan(radius / intensity);
+        if (wedgeAngle < angle) {
+            double s = Math.abs(radius * (gradMagnitude / gradients.getMaxGradientMagnitude()));
+            if (voxelValue > intensity - s && voxelValue < intensity + s) {
+
+                return 1 - wedgeAngle / angle;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compute Phong Shading given the voxel color (material color), gradient,
+     * light vector and view vector.
+     *
+     * @param voxelColor  Voxel color (material color).
+     * @param gradient    Gradient voxel.
+     * @param lightVector Light vector.
+     * @param rayVector   View vector.
+     * @param scratch     Scratch vectors of the render thread.
+     * @return Computed color for Phong Shading, stored in voxelColor.
+     */
+    TFColor computePhongShading(TFColor voxelColor, VoxelGradient gradient, double[] lightVector,
+                                double[] rayVector, RayScratch scratch) {
+
+        // TODO 7: Implement Phong Shading.
+        //a 'reflective surface' will always have a not-null gradient magnitude
+        if (gradient.mag == 0) {
+            return voxelColor;
+        }
+
+        //reflectiveness constants
+        double ambientFactor = 0.1;
+        double diffuseFactor = 0.7;
+        double specularFactor = 0.2;
+        double alpha = 50;
+
+
+        //formula implemented:
+        //intensity = ambientFactor*ia + diffuseFactor*(L^ dot N^ )*id + specularFactor*(r^ dot v^)^a*is;
+
+        //set the colors; compute the 3 bands separately
+        double rVoxel = voxelColor.r;
+        double gVoxel = voxelColor.g;
+        double bVoxel = voxelColor.b;
+
+        //setup the necessary variables
+        double[] toLightNormal = VectorMath.normalize(lightVector, scratch.toLightNormal);
+        double[] toViewNormal = VectorMath.normalize(rayVector, scratch.toViewNormal);
+
+        double[] invertGradient = scratch.invertGradient;
+        VectorMath.setVector(invertGradient, -gradient.x, -gradient.y, -gradient.z);
+        double[] gradientNormal = VectorMath.normalize(invertGradient, scratch.gradientNormal);
+
+
+        //compute light reflection
+        double dotProduct = VectorMath.dotproduct(toLightNormal, gradientNormal);
+        double lambertian = Math.max(dotProduct, 0.0);
+
+
+        double[] scaled = VectorMath.multiply(gradientNormal, 2 * dotProduct, scratch.scaled);
+
+        // reflectionNormal is the the direction taken by a perfect reflection of the light source on the surface
+        double[] reflectionNormal = VectorMath.difference(scaled, toLightNormal, scratch.reflectionNormal);
+
+        //store ambient color
+        double rAmbient = ambientFactor * rVoxel;
+        double gAmbient = ambientFactor * gVoxel;
+        double bAmbient = ambientFactor * bVoxel;
+
+        //check if normal is in correct direction, if light is orthogonal(or larger angle) to the surface only use ambient lighting
+        if (lambertian <= 0.0) {
+            voxelColor.r = rAmbient;
+            voxelColor.g = gAmbient;
+            voxelColor.b = bAmbient;
+            return voxelColor;
+        }
+
+        //store diffuse color
+        double rDiffuse = diffuseFactor * dotProduct * rVoxel;
+        double gDiffuse = diffuseFactor * dotProduct * gVoxel;
+        double bDiffuse = diffuseFactor * dotProduct * bVoxel;
+
+        //final step in computing the specular light reflection
+        double specAngle = VectorMath.dotproduct(reflectionNormal, toViewNormal);
+        double specPow = Math.pow(specAngle, alpha);
+        //store specular color
+        double rSpecular = specularFactor * specPow * rVoxel;
+        double gSpecular = specularFactor * specPow * gVoxel;
+        double bSpecular = specularFactor * specPow * bVoxel;
+
+        //store the final color, keeping the transparency of the color passed as argument
+        voxelColor.r = rAmbient + rDiffuse + rSpecular;
+        voxelColor.g = gAmbient + gDiffuse + gSpecular;
+        voxelColor.b = bAmbient + bDiffuse + bSpecular;
+        return voxelColor;
+    }
+
+    /**
+     * Ray casts one image, casting one ray per block of increment x increment
+     * pixels. The image is split into tiles which are cast in parallel on
+     * {@link #renderPool}, or one after the other on the calling thread; tiles
+     * that start after the frame was cancelled are skipped.
+     *
+     * @param viewMatrix OpenGL View matrix.
+     * @param image      Image to render into.
+     * @param increment  Increment in the pixel domain in pixel units.
+     * @param sampleStep Sample step in voxel units.
+     * @param cancelled  Whether the frame was cancelled.
+     * @param parallel   Whether to cast the tiles on the render pool.
+     */
+    void raycast(double[] viewMatrix, FrameBuffer image, int increment, int sampleStep, BooleanSupplier cancelled,
+                 boolean parallel) {
+        Frame frame = new Frame(viewMatrix, image, increment, sampleStep, cancelled);
+        try {
+            int tiles = frame.tilesX * frame.tilesY;
+            if (parallel) {
+                renderPool.invoke(new RaycastTileTask(frame, 0, tiles));
+            } else {
+                for (int tile = 0; tile < tiles; tile++) {
+                    raycastTile(frame, tile);
+                }
+            }
+            skippedSamples = frame.skippedSamples.sum();
+            if (frame.gBuffer != null && !frame.reshade && frame.isoOnly && !cancelled.getAsBoolean()) {
+                // every tile was cast, so every ray of the buffer was written
+                frame.gBuffer.setComplete(frame.isoValueFront, frame.isoValueBack, frame.shadingMode);
+            }
+        } finally {
+            if (frame.gBuffer != null) {
+                isoTracer.release(frame.gBuffer);
+            }
+        }
+    }
+
+    /**
+     * State of a single frame being ray cast, shared by the threads casting
+     * its tiles.
+     */
+    private final class Frame {
+
+        final FrameBuffer image;
+        final double[] viewVec = new double[3];
+        final double[] uVec = new double[3];
+        final double[] vVec = new double[3];
+        final double[] rayVector = new double[3];
+        final int increment, sampleStep;
+        final int tileSize, tilesX, tilesY;
+        /**
+         * Number of rays per row of the image.
+         */
+        final int raysX;
+        final EmptySpaceMap frontEmptySpace, backEmptySpace;
+        final PreIntegrationTable frontPreIntegration, backPreIntegration;
+        final double[] frontPreIntegrationTable, backPreIntegrationTable;
+        /**
+         * Whether compositing samples smooth bricks every
+         * {@link #ADAPTIVE_STRIDE} samples.
+         */
+        final boolean adaptive;
+        /**
+         * Opacity corrected LUTs of the transfer functions, when compositing
+         * without pre-integration.
+         */
+        final float[] frontLUT, backLUT;
+        /**
+         * LUTs corrected for {@link #ADAPTIVE_STRIDE} samples, when sampling
+         * adaptively.
+         */
+        final float[] frontStrideLUT, backStrideLUT;
+        final BooleanSupplier cancelled;
+        final LongAdder skippedSamples = new LongAdder();
+        /**
+         * Highest voxel value, at which maximum intensity projection stops.
+         */
+        final short volumeMaximum;
+        /**
+         * Settings of the engine the frame is rendered with. They are read
+         * once when the frame starts, so changing them while it is rendered
+         * only affects the next frame.
+         */
+        final RaycastMode modeFront, modeBack;
+        final boolean cuttingPlaneMode;
+        final double[] planePoint, planeNorm;
+        final TransferFunction tFuncFront, tFuncBack;
+        final TransferFunction2D tFunc2DFront, tFunc2DBack;
+        final TFColor isoColorFront, isoColorBack;
+        final boolean preIntegration, mipAcceleration, mipTrilinear;
+        final double opacityThreshold;
+        /**
+         * G-buffer of the view, when a mode renders an isosurface, and the
+         * settings the frame stores in it.
+         */
+        final IsoSurfaceTracer.GBuffer gBuffer;
+        final float isoValueFront, isoValueBack;
+        final boolean shadingMode;
+        /**
+         * Whether both modes render an isosurface, so that a G-buffer holds
+         * everything needed to shade the frame.
+         */
+        final boolean isoOnly;
+        /**
+         * Whether the frame is shaded from the G-buffer without casting rays.
+         */
+        final boolean reshade;
+
+        Frame(double[] viewMatrix, FrameBuffer image, int increment, int sampleStep, BooleanSupplier cancelled) {
+            this.image = image;
+            this.increment = increment;
+            this.sampleStep = sampleStep;
+            this.cancelled = cancelled;
+
+            // vector uVec and vVec define a plane through the origin,
+            // perpendicular to the view vector viewVec which is going from the view point towards the object
+            // uVec contains the up vector of the camera in world coordinates (image vertical)
+            // vVec contains the horizontal vector in world coordinates (image horizontal)
+            VectorMath.setVector(viewVec, viewMatrix[2], viewMatrix[6], viewMatrix[10]);
+            VectorMath.setVector(uVec, viewMatrix[0], viewMatrix[4], viewMatrix[8]);
+            VectorMath.setVector(vVec, viewMatrix[1], viewMatrix[5], viewMatrix[9]);
+
+            //The rayVector is pointing towards the scene
+            VectorMath.setVector(rayVector, viewVec[0], viewVec[1], viewVec[2]);
+
+            // Tiles are aligned to the pixel increment, so the blocks filled for a
+            // ray never cross into a tile owned by another thread.
+            tileSize = ((TILE_SIZE + increment - 1) / increment) * increment;
+            tilesX = (image.getWidth() + tileSize - 1) / tileSize;
+            tilesY = (image.getHeight() + tileSize - 1) / tileSize;
+            raysX = (image.getWidth() + increment - 1) / increment;
+
+            volumeMaximum = volume.getMaximum();
+            modeFront = RaycastEngine.this.modeFront;
+            modeBack = RaycastEngine.this.modeBack;
+            cuttingPlaneMode = RaycastEngine.this.cuttingPlaneMode;
+            planePoint = RaycastEngine.this.planePoint.clone();
+            planeNorm = RaycastEngine.this.planeNorm.clone();
+            tFuncFront = RaycastEngine.this.tFuncFront;
+            tFuncBack = RaycastEngine.this.tFuncBack;
+            // the 2D editor changes its transfer function in place
+            tFunc2DFront = copyOf(RaycastEngine.this.tFunc2DFront);
+            tFunc2DBack = copyOf(RaycastEngine.this.tFunc2DBack);
+            isoColorFront = new TFColor(RaycastEngine.this.isoColorFront.r, RaycastEngine.this.isoColorFront.g,
+                    RaycastEngine.this.isoColorFront.b, 1.0);
+            isoColorBack = new TFColor(RaycastEngine.this.isoColorBack.r, RaycastEngine.this.isoColorBack.g,
+                    RaycastEngine.this.isoColorBack.b, 1.0);
+            preIntegration = RaycastEngine.this.preIntegration;
+            mipAcceleration = RaycastEngine.this.mipAcceleration;
+            mipTrilinear = RaycastEngine.this.mipTrilinear;
+            adaptive = adaptiveSampling;
+            opacityThreshold = RaycastEngine.this.opacityThreshold;
+            isoValueFront = RaycastEngine.this.isoValueFront;
+            isoValueBack = RaycastEngine.this.isoValueBack;
+            shadingMode = RaycastEngine.this.shadingMode;
+            gBuffer = modeFront == RaycastMode.ISO_SURFACE || (cuttingPlaneMode && modeBack == RaycastMode.ISO_SURFACE)
+                    ? isoTracer.acquire(viewMatrix, raysX, (image.getHeight() + increment - 1) / increment, increment,
+                            sampleStep, cuttingPlaneMode, planePoint, planeNorm)
+                    : null;
+            isoOnly = modeFront == RaycastMode.ISO_SURFACE && (!cuttingPlaneMode || modeBack == RaycastMode.ISO_SURFACE);
+            reshade = isoOnly && gBuffer.isComplete(isoValueFront, isoValueBack, shadingMode);
+            if (gBuffer != null && !reshade) {
+                gBuffer.invalidate();
+            }
+            frontEmptySpace = reshade ? null : createEmptySpaceMap(this, true);
+            backEmptySpace = cuttingPlaneMode && !reshade ? createEmptySpaceMap(this, false) : null;
+
+            frontPreIntegration = getPreIntegrationTable(this, true);
+            frontPreIntegrationTable = frontPreIntegration != null ? frontPreIntegration.getTable() : null;
+            backPreIntegration = cuttingPlaneMode ? getPreIntegrationTable(this, false) : null;
+            backPreIntegrationTable = backPreIntegration != null ? backPreIntegration.getTable() : null;
+            frontLUT = getModeLUT(this, true, sampleStep);
+            backLUT = cuttingPlaneMode ? getModeLUT(this, false, sampleStep) : null;
+
+            int strideStep = ADAPTIVE_STRIDE * sampleStep;
+            frontStrideLUT = adaptive && frontLUT != null ? getModeLUT(this, true, strideStep) : null;
+            backStrideLUT = adaptive && backLUT != null ? getModeLUT(this, false, strideStep) : null;
+        }
+
+        RaycastMode getRaycastMode(boolean isFrontMode) {
+            return isFrontMode ? modeFront : modeBack;
+        }
+
+        private TransferFunction2D copyOf(TransferFunction2D tFunc2D) {
+            TransferFunction2D copy = new TransferFunction2D(tFunc2D.baseIntensity, tFunc2D.radius);
+            TFColor color = tFunc2D.color;
+            copy.color = new TFColor(color.r, color.g, color.b, color.a);
+            return copy;
+        }
+    }
+
+    /**
+     * Casts the rays of a single image tile.
+     *
+     * @param frame Frame the tile belongs to.
+     * @param tile  Index of the tile, row major.
+     */
+    private void raycastTile(Frame frame, int tile) {
+        if (frame.cancelled.getAsBoolean()) {
+            // the image is stale, a newer frame will replace it
+            return;
+        }
+        RayScratch s = scratch.get();
+        FrameBuffer image = frame.image;
+        int increment = frame.increment;
+        int imageW = image.getWidth();
+        int imageH = image.getHeight();
+
+        int x0 = (tile % frame.tilesX) * frame.tileSize;
+        int y0 = (tile / frame.tilesX) * frame.tileSize;
+        int x1 = Math.min(x0 + frame.tileSize, imageW);
+        int y1 = Math.min(y0 + frame.tileSize, imageH);
+        if (frame.reshade) {
+            reshadeTile(frame, x0, y0, x1, y1, s);
+            return;
+        }
+
+        // ray computation for each pixel
+        for (int j = y0; j < y1; j += increment) {
+            int row = (j / increment) * frame.raysX;
+            for (int i = x0; i < x1; i += increment) {
+                // compute starting points of rays in a plane shifted backwards to a position behind the data set
+                computePixelCoordinatesBehindFloat(image, s.pixelCoord, frame.viewVec, frame.uVec, frame.vVec, i, j);
+                // compute the entry and exit point of the ray
+                computeEntryAndExit(s.pixelCoord, frame.rayVector, s.entryPoint, s.exitPoint, s);
+
+                // TODO 9: Implement logic for cutting plane.
+                // every block of the tile is written, black if the ray misses the volume,
+                // so the image does not need to be cleared first
+                int val = 0;
+                // index of the ray in the G-buffer
+                int pixel = row + i / increment;
+                if ((s.entryPoint[0] > -1.0) && (s.exitPoint[0] > -1.0)) {
+                    boolean isFrontMode = !frame.cuttingPlaneMode || isFrontSlice(frame, s.entryPoint, s);
+                    val = traceRay(frame, s.entryPoint, s.exitPoint, isFrontMode, pixel, s);
+                } else if (frame.gBuffer != null) {
+                    frame.gBuffer.surfaces[pixel] = IsoSurfaceTracer.GBuffer.NONE;
+                }
+                image.fillBlock(i, j, increment, increment, val);
+
+            }
+        }
+
+        frame.skippedSamples.add(s.skippedSamples);
+        s.skippedSamples = 0;
+    }
+
+    /**
+     * Shades the pixels of a tile from the G-buffer of the frame, with the
+     * iso colors of the frame, the way {@link #traceRay} would.
+     */
+    private void reshadeTile(Frame frame, int x0, int y0, int x1, int y1, RayScratch s) {
+        FrameBuffer image = frame.image;
+        IsoSurfaceTracer.GBuffer gBuffer = frame.gBuffer;
+        int increment = frame.increment;
+        double[] rayVector = frame.rayVector;
+        double[] lightVector = s.lightVector;
+        VectorMath.setVector(lightVector, -rayVector[0], -rayVector[1], -rayVector[2]);
+        TFColor color = s.color;
+        VoxelGradient gradient = s.gradient;
+
+        for (int j = y0; j < y1; j += increment) {
+            int row = (j / increment) * frame.raysX;
+            for (int i = x0; i < x1; i += increment) {
+                int pixel = row + i / increment;
+                byte surface = gBuffer.surfaces[pixel];
+                int val = 0;
+                if (surface != IsoSurfaceTracer.GBuffer.NONE) {
+                    TFColor isoColor = surface == IsoSurfaceTracer.GBuffer.FRONT ? frame.isoColorFront : frame.isoColorBack;
+                    color.r = isoColor.r;
+                    color.g = isoColor.g;
+                    color.b = isoColor.b;
+                    color.a = 1.0;
+                    if (frame.shadingMode) {
+                        gradient.x = gBuffer.normals[4 * pixel];
+                        gradient.y = gBuffer.normals[4 * pixel + 1];
+                        gradient.z = gBuffer.normals[4 * pixel + 2];
+                        gradient.mag = gBuffer.normals[4 * pixel + 3];
+                        color = computePhongShading(color, gradient, lightVector, rayVector, s);
+                    }
+                    val = computePackedPixelColor(color.r, color.g, color.b, color.a);
+                }
+                image.fillBlock(i, j, increment, increment, val);
+            }
+        }
+    }
+
+    /**
+     * Ray casts a range of image tiles, splitting the range in halves until
+     * single tiles remain.
+     */
+    private class RaycastTileTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Frame frame;
+        private final int firstTile, endTile;
+
+        RaycastTileTask(Frame frame, int firstTile, int endTile) {
+            this.frame = frame;
+            this.firstTile = firstTile;
+            this.endTile = endTile;
+        }
+
+        @Override
+        protected void compute() {
+            if (endTile - firstTile == 1) {
+                raycastTile(frame, firstTile);
+                return;
+            }
+            int middle = (firstTile + endTile) >>> 1;
+            invokeAll(new RaycastTileTask(frame, firstTile, middle), new RaycastTileTask(frame, middle, endTile));
+        }
+    }
+
+    private int traceRay(Frame frame, double[] entryPoint, double[] exitPoint, boolean isFrontMode, int pixel,
+                         RayScratch scratch) {
+        int sampleStep = frame.sampleStep;
+        double[] rayVector = frame.rayVector;
+
+        //We define the light vector as directed toward the view point (which is the source of the light)
+        // another light vector would be possible
+        double[] lightVector = scratch.lightVector;
+        VectorMath.setVector(lightVector, -rayVector[0], -rayVector[1], -rayVector[2]);
+
+        //the current position is initialized as the exit point
+        double[] currentPos = scratch.currentPos;
+        VectorMath.setVector(currentPos, exitPoint[0], exitPoint[1], exitPoint[2]);
+
+        //compute the increment and the number of samples
+        double[] increments = scratch.increments;
+        computeIncrementsB2F(increments, rayVector, sampleStep);
+
+
+        int nrSamples = 1 + (int) Math.floor(VectorMath.distance(entryPoint, exitPoint) / sampleStep);
+
+        RaycastMode mode = frame.getRaycastMode(isFrontMode);
+        EmptySpaceMap emptySpace = isFrontMode ? frame.frontEmptySpace : frame.backEmptySpace;
+        TFColor color = scratch.color;
+        color.r = color.g = color.b = color.a = 0;
+        switch (mode) {
+            case COMPOSITING:
+                PreIntegrationTable preIntegrated = isFrontMode ? frame.frontPreIntegration : frame.backPreIntegration;
+                if (preIntegrated != null) {
+                    double[] table = isFrontMode ? frame.frontPreIntegrationTable : frame.backPreIntegrationTable;
+                    color = compositePreIntegrated(nrSamples, currentPos, increments, sampleStep, preIntegrated,
+                            table, frame.adaptive, emptySpace, frame.opacityThreshold, scratch);
+                    break;
+                }
+                TransferFunction tFunction = isFrontMode ? frame.tFuncFront : frame.tFuncBack;
+                float[] lut = isFrontMode ? frame.frontLUT : frame.backLUT;
+                float[] strideLUT = isFrontMode ? frame.frontStrideLUT : frame.backStrideLUT;
+                color = compositeCalculationRGB(nrSamples, currentPos, increments, tFunction, lut, strideLUT,
+                        emptySpace, frame.opacityThreshold, scratch);
+                break;
+            case TRANSFER2D:
+                TransferFunction2D tFunction2D = isFrontMode ? frame.tFunc2DFront : frame.tFunc2DBack;
+                color.r = tFunction2D.color.r;
+                color.g = tFunction2D.color.g;
+                color.b = tFunction2D.color.b;
+                color.a = tFunction2D.color.a;
+                color = computeTF2DColor(tFunction2D, color, currentPos, increments, nrSamples, emptySpace, scratch);
+                break;
+            case MIP:
+                if (frame.mipAcceleration || frame.mipTrilinear) {
+                    color = traceRayMIPAccelerated(currentPos, increments, nrSamples, emptySpace, frame.volumeMaximum,
+                            frame.mipTrilinear, scratch, color);
+                } else {
+                    color = traceRayMIP(currentPos, increments, nrSamples, color);
+                }
+                break;
+            case ISO_SURFACE:
+                float isoValue = isFrontMode ? frame.isoValueFront : frame.isoValueBack;
+                TFColor isoColor = isFrontMode ? frame.isoColorFront : frame.isoColorBack;
+                color = traceRayIso(currentPos, increments, nrSamples, isFrontMode, isoValue, isoColor, emptySpace,
+                        frame.gBuffer.hits, pixel, scratch, color);
+                frame.gBuffer.surfaces[pixel] = color.a == 0 ? IsoSurfaceTracer.GBuffer.NONE
+                        : (isFrontMode ? IsoSurfaceTracer.GBuffer.FRONT : IsoSurfaceTracer.GBuffer.BACK);
+                break;
+        }
+        if (frame.shadingMode && (mode.equals(RaycastMode.COMPOSITING) || mode.equals(RaycastMode.ISO_SURFACE))) {
+            VoxelGradient voxGrad = gradients.getGradientTrilinear(currentPos, scratch.gradient);
+            if (mode == RaycastMode.ISO_SURFACE) {
+                float[] normals = frame.gBuffer.normals;
+                normals[4 * pixel] = voxGrad.x;
+                normals[4 * pixel + 1] = voxGrad.y;
+                normals[4 * pixel + 2] = voxGrad.z;
+                normals[4 * pixel + 3] = voxGrad.mag;
+            }
+            color = computePhongShading(color, voxGrad, lightVector, rayVector, scratch);
+        }
+        return computePackedPixelColor(color.r, color.g, color.b, color.a);
+    }
+
+    private boolean isFrontSlice(Frame frame, double[] pointCoord, RayScratch scratch) {
+        double[] planePoint = frame.planePoint;
+        double[] planeNorm = frame.planeNorm;
+        double[] intersectionPoint = scratch.intersection;
+        intersectLinePlane(planePoint, planeNorm, pointCoord, planeNorm, intersectionPoint);
+        double[] difference = scratch.difference;
+        VectorMath.difference(pointCoord, intersectionPoint, difference);
+        return VectorMath.dotproduct(difference, planeNorm) > 0;
+    }
+
+    public RaycastMode getRaycastMode(boolean isFrontMode) {
+        return isFrontMode ? modeFront : modeBack;
+    }
+
+    public void setRaycastModeFront(RaycastMode mode) {
+        this.modeFront = mode;
+        dropUnusedGBuffers();
+    }
+
+    public void setRaycastModeBack(RaycastMode mode) {
+        this.modeBack = mode;
+        dropUnusedGBuffers();
+    }
+
+    /**
+     * Drops the G-buffers of the isosurface views once no mode renders an
+     * isosurface.
+     */
+    private void dropUnusedGBuffers() {
+        if (isoTracer != null && modeFront != RaycastMode.ISO_SURFACE
+                && (!cuttingPlaneMode || modeBack != RaycastMode.ISO_SURFACE)) {
+            isoTracer.clear();
+        }
+    }
+
+    public TransferFunction getTransferFunctionFront() {
+        return tFuncFront;
+    }
+
+    public void setTransferFunctionFront(TransferFunction tFunc) {
+        this.tFuncFront = tFunc;
+    }
+
+    public TransferFunction getTransferFunctionBack() {
+        return tFuncBack;
+    }
+
+    public void setTransferFunctionBack(TransferFunction tFunc) {
+        this.tFuncBack = tFunc;
+    }
+
+    public TransferFunction2D getTransferFunction2DFront() {
+        return tFunc2DFront;
+    }
+
+    public void setTransferFunction2DFront(TransferFunction2D tFunc2D) {
+        this.tFunc2DFront = tFunc2D;
+    }
+
+    public TransferFunction2D getTransferFunction2DBack() {
+        return tFunc2DBack;
+    }
+
+    public void setTransferFunction2DBack(TransferFunction2D tFunc2D) {
+        this.tFunc2DBack = tFunc2D;
+    }
+
+    public void setCuttingPlaneMode(boolean cuttingPlaneMode) {
+        this.cuttingPlaneMode = cuttingPlaneMode;
+        dropUnusedGBuffers();
+    }
+
+    public boolean isCuttingPlaneMode() {
+        return cuttingPlaneMode;
+    }
+
+    /**
+     * Sets the normal of the cutting plane, which goes through the center of
+     * the volume. Samples on the side the normal points to use the front mode.
+     *
+     * @param x X component of the normal.
+     * @param y Y component of the normal.
+     * @param z Z component of the normal.
+     */
+    public void setCuttingPlaneNormal(double x, double y, double z) {
+        VectorMath.setVector(planeNorm, x, y, z);
+    }
+
+    public double[] getCuttingPlaneNormal() {
+        return planeNorm.clone();
+    }
+
+    /**
+     * Sets whether compositing uses pre-integrated transfer function tables,
+     * which classify the whole segment between two samples instead of the
+     * samples alone.
+     *
+     * @param preIntegration Whether to pre-integrate.
+     */
+    public void setPreIntegration(boolean preIntegration) {
+        this.preIntegration = preIntegration;
+    }
+
+    public boolean isPreIntegration() {
+        return preIntegration;
+    }
+
+    public void setShadingMode(boolean shadingMode) {
+        this.shadingMode = shadingMode;
+    }
+
+    public boolean isShadingMode() {
+        return shadingMode;
+    }
+
+    public void setIsoValueFront(float isoValueFront) {
+        this.isoValueFront = isoValueFront;
+    }
+
+    public void setIsoValueBack(float isoValueBack) {
+        this.isoValueBack = isoValueBack;
+    }
+
+    /**
+     * Sets the color of the front isosurface. Its opacity is ignored.
+     *
+     * @param newColor color that becomes the new Iso color
+     */
+    public void setIsoColorFront(TFColor newColor) {
+        this.isoColorFront.r = newColor.r;
+        this.isoColorFront.g = newColor.g;
+        this.isoColorFront.b = newColor.b;
+    }
+
+    /**
+     * Sets the color of the back isosurface. Its opacity is ignored.
+     *
+     * @param newColor color that becomes the new Iso color
+     */
+    public void setIsoColorBack(TFColor newColor) {
+        this.isoColorBack.r = newColor.r;
+        this.isoColorBack.g = newColor.g;
+        this.isoColorBack.b = newColor.b;
+    }
+
+    /**
+     * Sets whether maximum intensity projection skips the parts of a ray
+     * that cannot raise its maximum, and stops at the maximum of the volume.
+     * The image does not change.
+     *
+     * @param mipAcceleration Whether to accelerate MIP.
+     */
+    public void setMipAcceleration(boolean mipAcceleration) {
+        this.mipAcceleration = mipAcceleration;
+    }
+
+    public boolean isMipAcceleration() {
+        return mipAcceleration;
+    }
+
+    /**
+     * Sets whether the slicer colors the voxel values with the front transfer
+     * function instead of mapping them to grey values.
+     *
+     * @param slicerTransferFunction Whether to use the transfer function.
+     */
+    public void setSlicerTransferFunction(boolean slicerTransferFunction) {
+        this.slicerTransferFunction = slicerTransferFunction;
+    }
+
+    public boolean isSlicerTransferFunction() {
+        return slicerTransferFunction;
+    }
+
+    /**
+     * Moves the plane the slicer samples along the view vector, to page
+     * through the slices of the volume.
+     *
+     * @param offset Distance from the center of the volume, in voxel units.
+     */
+    public void setSliceOffset(double offset) {
+        sliceOffset = offset;
+    }
+
+    public double getSliceOffset() {
+        return sliceOffset;
+    }
+
+    /**
+     * Sets whether maximum intensity projection interpolates the samples
+     * tri-linearly, which is smoother than the nearest voxel when zoomed in
+     * but slower.
+     *
+     * @param mipTrilinear Whether to interpolate.
+     */
+    public void setMipTrilinear(boolean mipTrilinear) {
+        this.mipTrilinear = mipTrilinear;
+    }
+
+    public boolean isMipTrilinear() {
+        return mipTrilinear;
+    }
+
+    /**
+     * Sets whether compositing samples adaptively: bricks in which the color
+     * and opacity change by at most the adaptive tolerance over
+     * {@link #ADAPTIVE_STRIDE} samples are sampled that many times less often,
+     * with the opacity corrected for the longer steps. The change is bounded
+     * from the value range and the largest voxel difference of the brick,
+     * and the slope of the transfer function.
+     *
+     * @param adaptiveSampling Whether to sample adaptively.
+     */
+    public void setAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+    }
+
+    public boolean isAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    /**
+     * Sets how much the color and opacity may change over a stride for a
+     * brick to be sampled with longer steps. 0 only allows bricks in which
+     * they are constant, which changes the image by rounding errors only.
+     *
+     * @param tolerance Largest difference of a color or opacity channel, at least 0.
+     */
+    public void setAdaptiveTolerance(double tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("Adaptive tolerance must not be negative");
+        }
+        this.adaptiveTolerance = tolerance;
+    }
+
+    public double getAdaptiveTolerance() {
+        return adaptiveTolerance;
+    }
+
+    /**
+     * Sets the accumulated opacity at which compositing with the 1D transfer
+     * function terminates a ray early. The 2D transfer function always stops
+     * at {@link #TF2D_OPACITY_THRESHOLD}.
+     *
+     * @param threshold Opacity in (0, 1]; 1 disables early ray termination.
+     */
+    public void setOpacityThreshold(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("Opacity threshold must be in (0, 1]");
+        }
+        this.opacityThreshold = threshold;
+    }
+
+    public double getOpacityThreshold() {
+        return opacityThreshold;
+    }
+
+    /**
+     * Gets how many samples the last finished frame skipped thanks to early
+     * ray termination.
+     *
+     * @return Number of skipped samples.
+     */
+    public long getSkippedSampleCount() {
+        return skippedSamples;
+    }
+
+    /**
+     * Sets the number of threads used to ray cast the image tiles.
+     *
+     * @param threads Number of render threads, at least 1.
+     */
+    public void setRenderThreadCount(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one render thread is needed");
+        }
+        ForkJoinPool old = renderPool;
+        renderPool = new ForkJoinPool(threads);
+        old.shutdown();
+    }
+
+    public int getRenderThreadCount() {
+        return renderPool.getParallelism();
+    }
+
+    /**
+     * Sets the memory budget of the gradients of the volumes set after this
+     * call. Gradients are computed in bricks the first time a ray needs them,
+     * and the least recently used bricks are dropped to stay within budget.
+     *
+     * @param bytes Memory budget in bytes, at least 1.
+     */
+    public void setGradientBudget(long bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("The gradient budget must be positive");
+        }
+        gradientBudget = bytes;
+    }
+
+    public long getGradientBudget() {
+        return gradientBudget;
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Computes the increments according to sample step and stores the result in
+     * increments.
+     *
+     * @param increments Vector to store the result.
+     * @param rayVector  Ray vector.
+     * @param sampleStep Sample step.
+     */
+    private void computeIncrementsB2F(double[] increments, double[] rayVector, double sampleStep) {
+        // we compute a back to front compositing so we start increments in the opposite direction than the pixel ray
+        VectorMath.setVector(increments, -rayVector[0] * sampleStep, -rayVector[1] * sampleStep, -rayVector[2] * sampleStep);
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Packs a color into a Integer.
+     *
+     * @param r Red component of the color.
+     * @param g Green component of the color.
+     * @param b Blue component of the color.
+     * @param a Alpha component of the color.
+     * @return
+     */
+    private static int computePackedPixelColor(double r, double g, double b, double a) {
+        int c_alpha = a <= 1.0 ? (int) Math.floor(a * 255) : 255;
+        int c_red = r <= 1.0 ? (int) Math.floor(r * 255) : 255;
+        int c_green = g <= 1.0 ? (int) Math.floor(g * 255) : 255;
+        int c_blue = b <= 1.0 ? (int) Math.floor(b * 255) : 255;
+
+        return (c_alpha << 24) | (c_red << 16) | (c_green << 8) | c_blue;
+    }
+
+    /**
+     * Computes the entry and exit of a view vector with respect the faces of
+     * the volume.
+     *
+     * @param p          Point of the ray.
+     * @param viewVec    Direction of the ray.
+     * @param entryPoint Vector to store entry point.
+     * @param exitPoint  Vector to store exit point.
+     * @param scratch    Scratch vectors of the render thread.
+     */
+    private void computeEntryAndExit(double[] p, double[] viewVec, double[] entryPoint, double[] exitPoint,
+                                     RayScratch scratch) {
+
+        for (int i = 0; i < 3; i++) {
+            entryPoint[i] = -1;
+            exitPoint[i] = -1;
+        }
+
+        double[] plane_pos = scratch.planePos;
+        double[] plane_normal = scratch.planeNormal;
+        double[] intersection = scratch.intersection;
+
+        VectorMath.setVector(plane_pos, volume.getDimX(), 0, 0);
+        VectorMath.setVector(plane_normal, 1, 0, 0);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+
+        VectorMath.setVector(plane_pos, 0, 0, 0);
+        VectorMath.setVector(plane_normal, -1, 0, 0);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+
+        VectorMath.setVector(plane_pos, 0, volume.getDimY(), 0);
+        VectorMath.setVector(plane_normal, 0, 1, 0);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+
+        VectorMath.setVector(plane_pos, 0, 0, 0);
+        VectorMath.setVector(plane_normal, 0, -1, 0);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+
+        VectorMath.setVector(plane_pos, 0, 0, volume.getDimZ());
+        VectorMath.setVector(plane_normal, 0, 0, 1);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+
+        VectorMath.setVector(plane_pos, 0, 0, 0);
+        VectorMath.setVector(plane_normal, 0, 0, -1);
+        intersectFace(plane_pos, plane_normal, p, viewVec, intersection, entryPoint, exitPoint);
+    }
+
+    /**
+     * Checks if a line intersects a plane.
+     *
+     * @param plane_pos    Position of plane.
+     * @param plane_normal Normal of plane.
+     * @param line_pos     Position of line.
+     * @param line_dir     Direction of line.
+     * @param intersection Vector to store intersection.
+     * @return True if intersection happens. False otherwise.
+     */
+    private static boolean intersectLinePlane(double[] plane_pos, double[] plane_normal,
+                                              double[] line_pos, double[] line_dir, double[] intersection) {
+
+        double denom = VectorMath.dotproduct(line_dir, plane_normal);
+        if (Math.abs(denom) < 1.0e-8) {
+            return false;
+        }
+
+        double t = ((plane_pos[0] - line_pos[0]) * plane_normal[0]
+                + (plane_pos[1] - line_pos[1]) * plane_normal[1]
+                + (plane_pos[2] - line_pos[2]) * plane_normal[2]) / denom;
+
+        for (int i = 0; i < 3; i++) {
+            intersection[i] = line_pos[i] + t * line_dir[i];
+        }
+
+        return true;
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Checks if it is a valid intersection.
+     *
+     * @param intersection Vector with the intersection point.
+     * @param xb           beginning of the x component
+     * @param xe           end of the x component
+     * @param yb           beginning of the y component
+     * @param ye           end of the y component
+     * @param zb           beginning of the z component
+     * @param ze           end of the z component
+     * @return
+     */
+    private static boolean validIntersection(double[] intersection, double xb, double xe, double yb,
+                                             double ye, double zb, double ze) {
+
+        return (((xb - 0.5) <= intersection[0]) && (intersection[0] <= (xe + 0.5))
+                && ((yb - 0.5) <= intersection[1]) && (intersection[1] <= (ye + 0.5))
+                && ((zb - 0.5) <= intersection[2]) && (intersection[2] <= (ze + 0.5)));
+
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Checks the intersection of a line with a plane and returns entry and exit
+     * points in case intersection happens.
+     *
+     * @param plane_pos    Position of plane.
+     * @param plane_normal Normal vector of plane.
+     * @param line_pos     Position of line.
+     * @param line_dir     Direction of line.
+     * @param intersection Vector to store the intersection point.
+     * @param entryPoint   Vector to store the entry point.
+     * @param exitPoint    Vector to store the exit point.
+     */
+    private void intersectFace(double[] plane_pos, double[] plane_normal,
+                               double[] line_pos, double[] line_dir, double[] intersection,
+                               double[] entryPoint, double[] exitPoint) {
+
+        boolean intersect = intersectLinePlane(plane_pos, plane_normal, line_pos, line_dir,
+                intersection);
+        if (intersect) {
+
+            double xpos0 = 0;
+            double xpos1 = volume.getDimX();
+            double ypos0 = 0;
+            double ypos1 = volume.getDimY();
+            double zpos0 = 0;
+            double zpos1 = volume.getDimZ();
+
+            if (validIntersection(intersection, xpos0, xpos1, ypos0, ypos1,
+                    zpos0, zpos1)) {
+                if (VectorMath.dotproduct(line_dir, plane_normal) < 0) {
+                    entryPoint[0] = intersection[0];
+                    entryPoint[1] = intersection[1];
+                    entryPoint[2] = intersection[2];
+                } else {
+                    exitPoint[0] = intersection[0];
+                    exitPoint[1] = intersection[1];
+                    exitPoint[2] = intersection[2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Do NOT modify this function.
+     * <p>
+     * Calculates the pixel coordinate for the given parameters. It calculates
+     * the coordinate having the center (0,0) of the view plane aligned with the
+     * center of the volume and moved a distance equivalent to the diagonal to
+     * make sure we are far enough.
+     *
+     * @param image      Image the pixel belongs to.
+     * @param pixelCoord Vector to store the result.
+     * @param viewVec    View vector (ray).
+     * @param uVec       uVector.
+     * @param vVec       vVector.
+     * @param i          Pixel i.
+     * @param j          Pixel j.
+     */
+    private void computePixelCoordinatesBehindFloat(FrameBuffer image, double[] pixelCoord, double[] viewVec,
+                                                    double[] uVec, double[] vVec, float i, float j) {
+        int imageCenter = image.getWidth() / 2;
+        // Pixel coordinate is calculate having the center (0,0) of the view plane aligned with the center of the volume and moved a distance equivalent
+        // to the diagonal to make sure I am far away enough.
+
+        double diagonal = Math.sqrt((volume.getDimX() * volume.getDimX()) + (volume.getDimY() * volume.getDimY()) + (volume.getDimZ() * volume.getDimZ())) / 2;
+        pixelCoord[0] = uVec[0] * (i - imageCenter) + vVec[0] * (j - imageCenter) + viewVec[0] * diagonal + volume.getDimX() / 2.0;
+        pixelCoord[1] = uVec[1] * (i - imageCenter) + vVec[1] * (j - imageCenter) + viewVec[1] * diagonal + volume.getDimY() / 2.0;
+        pixelCoord[2] = uVec[2] * (i - imageCenter) + vVec[2] * (j - imageCenter) + viewVec[2] * diagonal + volume.getDimZ() / 2.0;
+    }
+}
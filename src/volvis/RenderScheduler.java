@@ -0,0 +1,102 @@
+package volvis;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs frame jobs on a dedicated thread, so the GL and Swing threads never
+ * wait for a render. Only the latest requested frame is kept: a request
+ * replaces any frame that has not started yet.
+ * <p>
+ * Every change to the camera or the rendering settings starts a new
+ * generation. Frames belong to the generation they were requested in and are
+ * cancelled cooperatively: a frame checks {@link #isStale(int)} between
+ * tiles and stops as soon as a newer generation exists.
+ */
+class RenderScheduler {
+
+    RenderScheduler(String threadName) {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, threadName);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a new generation, cancelling the frames of older ones.
+     *
+     * @return The new generation.
+     */
+    int invalidate() {
+        return generation.incrementAndGet();
+    }
+
+    int getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Whether a frame of the given generation has been superseded.
+     */
+    boolean isStale(int frameGeneration) {
+        return generation.get() != frameGeneration;
+    }
+
+    /**
+     * Requests a frame. It replaces the requested frame that has not started
+     * yet, if any.
+     *
+     * @param frame Job rendering the frame.
+     */
+    void request(Runnable frame) {
+        if (pending.getAndSet(frame) == null) {
+            last = executor.submit(this::runPending);
+        }
+    }
+
+    /**
+     * Cancels all frames and waits until the frame in flight has stopped, so
+     * that the caller can change state the frames read. A frame stops at its
+     * next tile, so this only waits for the tiles being ray cast.
+     */
+    void cancelAndWait() {
+        invalidate();
+        pending.set(null);
+        Future<?> running = last;
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private void runPending() {
+        Runnable frame = pending.getAndSet(null);
+        if (frame == null) {
+            return;
+        }
+        try {
+            frame.run();
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private final ExecutorService executor;
+    private final AtomicInteger generation = new AtomicInteger();
+    /**
+     * Latest requested frame that has not started yet.
+     */
+    private final AtomicReference<Runnable> pending = new AtomicReference<>();
+    private volatile Future<?> last;
+}
@@ -0,0 +1,217 @@
+package volvis;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import volume.Volume;
+import volume.VoxelLayout;
+
+/**
+ * Axis aligned slices of a {@link Volume}, for slicing views whose plane is
+ * perpendicular to an axis. A slice holds the tri-linearly interpolated voxel
+ * values, truncated to integers as the slicer does, at an origin plus every
+ * grid position of a plane through the volume. The origin lies on the voxel
+ * grid, or half a voxel off it within the plane, as the pixels of an axis
+ * aligned view do for odd volume dimensions or image sizes. A slice whose
+ * origin is a voxel holds the voxels themselves; the x-y planes of a
+ * {@link VoxelLayout#LINEAR} volume are read straight from its data without
+ * copying. Other slices are extracted in parallel and kept until their total
+ * size exceeds the memory budget, after which the least recently used ones
+ * are evicted.
+ */
+class SliceCache {
+
+    /**
+     * Largest number of rows extracted as one task.
+     */
+    private static final int EXTRACT_ROWS = 16;
+
+    /**
+     * Creates a slice cache.
+     *
+     * @param vol    Volume to slice.
+     * @param budget Memory budget of the extracted slices, in bytes.
+     */
+    SliceCache(Volume vol, long budget) {
+        volume = vol;
+        this.budget = budget;
+    }
+
+    /**
+     * Gets the slice perpendicular to an axis through an origin, extracting
+     * it if it is not cached.
+     *
+     * @param axis   Axis perpendicular to the slice: 0, 1 or 2 for x, y or z.
+     * @param origin Position of the first sample of the slice. Along axis it
+     *               lies between 0 and the dimension minus 2; along the other
+     *               axes it is 0 or 0.5.
+     * @param pool   Pool to extract the slice on, or null to extract it on
+     *               the calling thread.
+     * @return The slice.
+     */
+    AxisSlice getSlice(int axis, double[] origin, ForkJoinPool pool) {
+        int plane = (int) origin[2];
+        if (axis == 2 && isWhole(origin) && volume.getLayout() == VoxelLayout.LINEAR) {
+            // the plane is stored contiguously
+            int[] strides = {1, volume.getDimX(), 0};
+            return new AxisSlice(volume.getData(), volume.getIndex(0, 0, plane), strides);
+        }
+
+        Key key = new Key(axis, origin.clone());
+        synchronized (this) {
+            AxisSlice slice = slices.get(key);
+            if (slice != null) {
+                return slice;
+            }
+        }
+
+        // extracted outside the lock, so slices of other frames are not held up
+        AxisSlice slice = extract(axis, key.origin, pool);
+        synchronized (this) {
+            if (slices.put(key, slice) == null) {
+                bytes += slice.getBytes();
+            }
+            Iterator<AxisSlice> eldest = slices.values().iterator();
+            while (bytes > budget && slices.size() > 1) {
+                bytes -= eldest.next().getBytes();
+                eldest.remove();
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Gets the number of bytes taken by the cached slices.
+     */
+    synchronized long getCachedBytes() {
+        return bytes;
+    }
+
+    private static boolean isWhole(double[] origin) {
+        return origin[0] == (int) origin[0] && origin[1] == (int) origin[1] && origin[2] == (int) origin[2];
+    }
+
+    private AxisSlice extract(int axis, double[] origin, ForkJoinPool pool) {
+        int[] dims = {volume.getDimX(), volume.getDimY(), volume.getDimZ()};
+        // the remaining axes, in increasing order
+        int first = axis == 0 ? 1 : 0;
+        int second = axis == 2 ? 1 : 2;
+        int[] strides = new int[3];
+        strides[first] = 1;
+        strides[second] = dims[first];
+        AxisSlice slice = new AxisSlice(new short[dims[first] * dims[second]], 0, strides);
+
+        ExtractTask task = new ExtractTask(slice, origin, first, second, dims[first], 0, dims[second]);
+        if (pool != null) {
+            pool.invoke(task);
+        } else {
+            task.compute();
+        }
+        return slice;
+    }
+
+    /**
+     * Extracts rows of a slice, splitting the range in halves until at most
+     * {@link #EXTRACT_ROWS} rows remain.
+     */
+    private class ExtractTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AxisSlice slice;
+        private final double[] origin;
+        private final int first, second, columns;
+        private final int firstRow, endRow;
+
+        ExtractTask(AxisSlice slice, double[] origin, int first, int second, int columns, int firstRow, int endRow) {
+            this.slice = slice;
+            this.origin = origin;
+            this.first = first;
+            this.second = second;
+            this.columns = columns;
+            this.firstRow = firstRow;
+            this.endRow = endRow;
+        }
+
+        @Override
+        protected void compute() {
+            if (endRow - firstRow > EXTRACT_ROWS) {
+                int middle = (firstRow + endRow) >>> 1;
+                invokeAll(new ExtractTask(slice, origin, first, second, columns, firstRow, middle),
+                        new ExtractTask(slice, origin, first, second, columns, middle, endRow));
+                return;
+            }
+            double[] coord = origin.clone();
+            boolean whole = isWhole(origin);
+            for (int row = firstRow; row < endRow; row++) {
+                coord[second] = origin[second] + row;
+                int offset = row * columns;
+                for (int column = 0; column < columns; column++) {
+                    coord[first] = origin[first] + column;
+                    // a whole coordinate interpolates to the voxel itself
+                    slice.voxels[offset + column] = whole
+                            ? volume.getVoxel((int) coord[0], (int) coord[1], (int) coord[2])
+                            : (short) (int) volume.getVoxelTrilinear(coord);
+                }
+            }
+        }
+    }
+
+    /**
+     * Voxel values of a plane perpendicular to an axis. The value at the
+     * origin of the slice plus grid position (x, y, z) of the plane is
+     * voxels[offset + x * strides[0] + y * strides[1] + z * strides[2]], the
+     * stride along the axis perpendicular to the plane being 0.
+     */
+    static final class AxisSlice {
+
+        final short[] voxels;
+        final int offset;
+        final int[] strides;
+
+        AxisSlice(short[] voxels, int offset, int[] strides) {
+            this.voxels = voxels;
+            this.offset = offset;
+            this.strides = strides;
+        }
+
+        long getBytes() {
+            return 2L * voxels.length;
+        }
+    }
+
+    /**
+     * Axis and origin of a slice.
+     */
+    private static final class Key {
+
+        private final int axis;
+        private final double[] origin;
+
+        Key(int axis, double[] origin) {
+            this.axis = axis;
+            this.origin = origin;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).axis == axis && Arrays.equals(((Key) o).origin, origin);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(origin) + axis;
+        }
+    }
+
+    private final Volume volume;
+    private final long budget;
+    /**
+     * The extracted slices, in order of last use.
+     */
+    private final Map<Key, AxisSlice> slices = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+}
@@ -6,6 +6,8 @@ package volvis;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import util.TFChangeListener;
 
 /**
@@ -26,9 +28,10 @@ public class TransferFunction {
         controlPoints.add(new ControlPoint(max, new TFColor(1.0, 1.0, 1.0, 1.0)));
 
         LUTsize = sRange;
-        LUT = new TFColor[LUTsize];
+        LUT = new float[4 * LUTsize];
+        opaqueCount = new int[LUTsize + 1];
 
-        buildLUT();
+        buildLUT(sMin, sMax);
 
     }
     
@@ -60,11 +63,170 @@ public class TransferFunction {
         return controlPoints;
     }
 
+    /**
+     * Gets the color of a value in a new object. Use
+     * {@link #getColor(int, TFColor)} or the packed LUT in loops over many
+     * samples.
+     */
     public TFColor getColor(int value) {
-        return LUT[computeLUTindex(value)];
+        return getColor(value, new TFColor());
     }
 
+    /**
+     * Gets the color of a value.
+     *
+     * @param value  Scalar value.
+     * @param result Color the result is written to.
+     * @return The result.
+     */
+    public TFColor getColor(int value, TFColor result) {
+        int offset = getLUToffset(value);
+        result.r = LUT[offset];
+        result.g = LUT[offset + 1];
+        result.b = LUT[offset + 2];
+        result.a = LUT[offset + 3];
+        return result;
+    }
+
+    public float getOpacity(int value) {
+        return LUT[getLUToffset(value) + 3];
+    }
+
+    /**
+     * Gets the offset of the entry of a value in the packed LUTs.
+     *
+     * @param value Scalar value between the minimum and the maximum.
+     * @return Offset of the red component; green, blue and opacity follow it.
+     */
+    public int getLUToffset(int value) {
+        return 4 * computeLUTindex(value);
+    }
+
+    /**
+     * Gets the packed LUT: red, green, blue and opacity of every entry, see
+     * {@link #getLUToffset(int)}. The array is updated in place when the
+     * control points change and must not be modified.
+     */
+    public float[] getLUT() {
+        return LUT;
+    }
+
+    /**
+     * Gets the packed LUT with red, green and blue multiplied by the opacity,
+     * laid out as {@link #getLUT()}. It is created on the first call and
+     * kept up to date from then on.
+     */
+    public synchronized float[] getPremultipliedLUT() {
+        if (premultipliedLUT == null) {
+            float[] premultiplied = new float[LUT.length];
+            premultiply(premultiplied, 1, 0, LUTsize - 1);
+            premultipliedLUT = premultiplied;
+        }
+        return premultipliedLUT;
+    }
+
+    /**
+     * Gets the premultiplied LUT for samples that are sampleStep voxels
+     * apart. The opacities are corrected to 1 - (1 - a)^sampleStep, so that
+     * a ray accumulates the same opacity whatever its sample step. The LUT
+     * of every step is created on the first call and kept up to date from
+     * then on.
+     *
+     * @param sampleStep Distance between two samples in voxel units, at least 1.
+     * @return The LUT, laid out as {@link #getLUT()}.
+     */
+    public synchronized float[] getPremultipliedLUT(int sampleStep) {
+        if (sampleStep == 1) {
+            return getPremultipliedLUT();
+        }
+        float[] corrected = correctedLUTs.get(sampleStep);
+        if (corrected == null) {
+            corrected = new float[LUT.length];
+            premultiply(corrected, sampleStep, 0, LUTsize - 1);
+            correctedLUTs.put(sampleStep, corrected);
+        }
+        return corrected;
+    }
+
+    /**
+     * Gets a counter that is incremented whenever the LUT changes, so that
+     * data derived from it can tell whether it is out of date.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks whether all values in a range map to a fully transparent color.
+     *
+     * @param min Lowest value of the range.
+     * @param max Highest value of the range.
+     * @return True if every value in [min, max] has opacity 0.
+     */
+    public boolean isTransparent(int min, int max) {
+        if (min < sMin || max > sMax) {
+            return false;
+        }
+        return opaqueCount[computeLUTindex(max) + 1] - opaqueCount[computeLUTindex(min)] == 0;
+    }
+
+    /**
+     * Gets how much the color and opacity vary over a range of values: the
+     * largest difference of one channel between two values in the range. As
+     * the function is linear between control points, only the ends of the
+     * range and the control points inside it are compared.
+     *
+     * @param min Lowest value of the range.
+     * @param max Highest value of the range.
+     * @return The variation, 0 if the function is constant over the range.
+     */
+    public double getVariation(int min, int max) {
+        min = Math.max(min, sMin);
+        max = Math.min(max, sMax);
+        if (min >= max) {
+            return 0;
+        }
+        double variation = 0;
+        for (int c = 0; c < 4; c++) {
+            float low = LUT[getLUToffset(min) + c];
+            float high = low;
+            for (int i = 0; i <= controlPoints.size(); i++) {
+                int value = i < controlPoints.size() ? controlPoints.get(i).value : max;
+                if (value > min && value <= max) {
+                    float channel = LUT[getLUToffset(value) + c];
+                    low = Math.min(low, channel);
+                    high = Math.max(high, channel);
+                }
+            }
+            variation = Math.max(variation, high - low);
+        }
+        return variation;
+    }
     
+    /**
+     * Gets the steepest slope of the color and opacity over a range of
+     * values: the largest change of one channel per unit of value in a
+     * segment between two control points that overlaps the range.
+     *
+     * @param min Lowest value of the range.
+     * @param max Highest value of the range.
+     * @return The slope, 0 if the function is constant over the range.
+     */
+    public double getMaxSlope(int min, int max) {
+        double slope = 0;
+        for (int i = 1; i < controlPoints.size(); i++) {
+            ControlPoint prev = controlPoints.get(i - 1);
+            ControlPoint next = controlPoints.get(i);
+            if (next.value <= min || prev.value >= max || next.value == prev.value) {
+                continue;
+            }
+            double change = Math.max(Math.max(Math.abs(next.color.r - prev.color.r), Math.abs(next.color.g - prev.color.g)),
+                    Math.max(Math.abs(next.color.b - prev.color.b), Math.abs(next.color.a - prev.color.a)));
+            slope = Math.max(slope, change / (next.value - prev.value));
+        }
+        return slope;
+    }
+
     public int addControlPoint(int value, double r, double g, double b, double a) {
         if (value < sMin || value > sMax) {
             return -1;
@@ -84,24 +246,40 @@ public class TransferFunction {
             controlPoints.add(idx, cp);
         }
 
-        buildLUT();
+        buildLUT(idx, value, value);
         return idx;
     }
 
     public void removeControlPoint(int idx) {
         controlPoints.remove(idx);
-        buildLUT();
+        // the neighbours of the removed point are now at idx - 1 and idx
+        buildLUT(idx > 0 ? controlPoints.get(idx - 1).value : sMin,
+                idx < controlPoints.size() ? controlPoints.get(idx).value : sMax);
     }
     
     public void updateControlPointScalar(int index, int s) {
-        controlPoints.get(index).value = s;
-        buildLUT();
+        updateControlPoint(index, s, controlPoints.get(index).color.a);
     }
     
     public void updateControlPointAlpha(int index, double alpha) {
-        alpha = Math.floor(alpha*100)/100.0;
-        controlPoints.get(index).color.a = alpha;
-        buildLUT();
+        ControlPoint cp = controlPoints.get(index);
+        cp.color.a = Math.floor(alpha*100)/100.0;
+        buildLUT(index, cp.value, cp.value);
+    }
+
+    /**
+     * Moves a control point and changes its opacity, rebuilding the LUT once.
+     *
+     * @param index Index of the control point.
+     * @param s     New scalar value, between the values of the neighbours.
+     * @param alpha New opacity.
+     */
+    public void updateControlPoint(int index, int s, double alpha) {
+        ControlPoint cp = controlPoints.get(index);
+        int oldValue = cp.value;
+        cp.value = s;
+        cp.color.a = Math.floor(alpha*100)/100.0;
+        buildLUT(index, Math.min(oldValue, s), Math.max(oldValue, s));
     }
     
     public void updateControlPointColor(int idx, Color c) {
@@ -109,7 +287,7 @@ public class TransferFunction {
         cp.color.r = c.getRed()/255.0;
         cp.color.g = c.getGreen()/255.0;
         cp.color.b = c.getBlue()/255.0;
-        buildLUT();
+        buildLUT(idx, cp.value, cp.value);
     }
     
     public void changed() {
@@ -123,26 +301,82 @@ public class TransferFunction {
         return idx;
     }
 
-    private void buildLUT() {
+    /**
+     * Rebuilds the LUT entries of the segments next to a changed control
+     * point, which used to span values low to high.
+     */
+    private void buildLUT(int index, int low, int high) {
+        if (index > 0) {
+            low = Math.min(low, controlPoints.get(index - 1).value);
+        }
+        if (index < controlPoints.size() - 1) {
+            high = Math.max(high, controlPoints.get(index + 1).value);
+        }
+        buildLUT(low, high);
+    }
 
-        for (int i = 1; i < controlPoints.size(); i++) {
+    /**
+     * Rebuilds the LUT entries of the values low to high by interpolating
+     * between the control points around them.
+     */
+    private void buildLUT(int low, int high) {
+        low = Math.max(low, sMin);
+        high = Math.min(high, sMax);
+        // neighbouring values can share an entry, which holds the highest of them
+        while (high < sMax && computeLUTindex(high + 1) == computeLUTindex(high)) {
+            high++;
+        }
+
+        int i = 1;
+        while (i < controlPoints.size() - 1 && controlPoints.get(i).value <= low) {
+            i++;
+        }
+        for (int k = low; k <= high; k++) {
+            while (i < controlPoints.size() - 1 && controlPoints.get(i).value <= k) {
+                i++;
+            }
             ControlPoint prev = controlPoints.get(i - 1);
             ControlPoint next = controlPoints.get(i);
-            //System.out.println(prev.value + " " + prev.color + " -- " + next.value + " " + next.color);
-            double range = next.value - prev.value;
-            for (int k = prev.value; k <= next.value; k++) {
-                double frac = (k - prev.value) / range;
-                TFColor newcolor = new TFColor();
-                newcolor.r = prev.color.r + frac * (next.color.r - prev.color.r);
-                newcolor.g = prev.color.g + frac * (next.color.g - prev.color.g);
-                newcolor.b = prev.color.b + frac * (next.color.b - prev.color.b);
-                newcolor.a = prev.color.a + frac * (next.color.a - prev.color.a);
-                LUT[computeLUTindex(k)] = newcolor;
+            if (k < prev.value || k > next.value) {
+                continue;
             }
-
+            double range = next.value - prev.value;
+            double frac = range > 0 ? (k - prev.value) / range : 0;
+            int offset = 4 * computeLUTindex(k);
+            LUT[offset] = (float) (prev.color.r + frac * (next.color.r - prev.color.r));
+            LUT[offset + 1] = (float) (prev.color.g + frac * (next.color.g - prev.color.g));
+            LUT[offset + 2] = (float) (prev.color.b + frac * (next.color.b - prev.color.b));
+            LUT[offset + 3] = (float) (prev.color.a + frac * (next.color.a - prev.color.a));
         }
 
+        int first = computeLUTindex(low);
+        int last = computeLUTindex(high);
+        synchronized (this) {
+            if (premultipliedLUT != null) {
+                premultiply(premultipliedLUT, 1, first, last);
+            }
+            for (Map.Entry<Integer, float[]> corrected : correctedLUTs.entrySet()) {
+                premultiply(corrected.getValue(), corrected.getKey(), first, last);
+            }
+        }
+        // running count of the entries that are not fully transparent
+        for (int e = first; e < LUTsize; e++) {
+            opaqueCount[e + 1] = opaqueCount[e] + (LUT[4 * e + 3] > 0 ? 1 : 0);
+        }
+        version++;
+    }
 
+    private void premultiply(float[] premultiplied, int sampleStep, int first, int last) {
+        for (int offset = 4 * first; offset <= 4 * last; offset += 4) {
+            float a = LUT[offset + 3];
+            if (sampleStep != 1) {
+                a = (float) (1 - Math.pow(1 - a, sampleStep));
+            }
+            premultiplied[offset] = LUT[offset] * a;
+            premultiplied[offset + 1] = LUT[offset + 1] * a;
+            premultiplied[offset + 2] = LUT[offset + 2] * a;
+            premultiplied[offset + 3] = a;
+        }
     }
 
     public class ControlPoint implements Comparable<ControlPoint> {
@@ -168,7 +402,18 @@ public class TransferFunction {
     }
     private short sMin, sMax;
     private int sRange;
-    private TFColor[] LUT;
+    /**
+     * Red, green, blue and opacity of every entry, see {@link #getLUToffset(int)}.
+     */
+    private float[] LUT;
+    /**
+     * Premultiplied LUT, and the premultiplied LUTs with opacity correction
+     * by sample step. Both are guarded by this.
+     */
+    private float[] premultipliedLUT;
+    private final Map<Integer, float[]> correctedLUTs = new HashMap<>();
+    private int version;
+    private int[] opaqueCount;
     private int LUTsize = 4095;
     private ArrayList<ControlPoint> controlPoints;
 }